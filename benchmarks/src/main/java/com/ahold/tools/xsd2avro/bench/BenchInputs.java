@@ -0,0 +1,83 @@
+package com.ahold.tools.xsd2avro.bench;
+
+import com.ahold.tools.xsd2avro.OptionsCli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmark inputs: the bundled {@code xsds/} files (looked up via {@code -Dxsd2avro.xsds=<dir>},
+ * then {@code xsds} and {@code ../xsds}) or {@code synthetic-N}, a generated message schema that
+ * imports a library of N complex types (binary-tree nesting plus a shared leaf type and enum).
+ */
+final class BenchInputs {
+    private BenchInputs() {}
+
+    static File resolve(String input) {
+        if (input.startsWith("synthetic-")) return synthetic(Integer.parseInt(input.substring("synthetic-".length())));
+        for (String dir : new String[] { System.getProperty("xsd2avro.xsds"), "xsds", "../xsds" }) {
+            if (dir == null) continue;
+            File f = new File(dir, input);
+            if (f.isFile()) return f;
+        }
+        throw new IllegalArgumentException("Cannot find " + input + "; run from the project root or set -Dxsd2avro.xsds");
+    }
+
+    static OptionsCli options(File xsd, boolean flattenTop, boolean forceString, boolean nullableAttrs) {
+        OptionsCli cli = new OptionsCli();
+        cli.in = xsd;
+        cli.flattenTop = flattenTop;
+        cli.forceString = forceString ? "GLN,MessageNo,Id,Qty" : null;
+        cli.nullableAttrs = nullableAttrs;
+        return cli;
+    }
+
+    private static File synthetic(int types) {
+        try {
+            Path dir = Files.createTempDirectory("xsd2avro-bench");
+            dir.toFile().deleteOnExit();
+            StringBuilder lib = new StringBuilder();
+            lib.append("<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:synthetic:lib\"")
+               .append(" xmlns=\"urn:synthetic:lib\" elementFormDefault=\"qualified\">\n");
+            lib.append("  <xs:simpleType name=\"StatusCode\"><xs:restriction base=\"xs:string\">")
+               .append("<xs:enumeration value=\"NEW\"/><xs:enumeration value=\"OPEN\"/><xs:enumeration value=\"CLOSED\"/>")
+               .append("</xs:restriction></xs:simpleType>\n");
+            for (int i = 0; i < types; i++) {
+                lib.append("  <xs:complexType name=\"T").append(i).append("\"><xs:sequence>")
+                   .append("<xs:element name=\"Id\" type=\"xs:string\"/>")
+                   .append("<xs:element name=\"Qty\" type=\"xs:int\" minOccurs=\"0\"/>")
+                   .append("<xs:element name=\"Amount\" type=\"xs:decimal\"/>")
+                   .append("<xs:element name=\"Status\" type=\"StatusCode\"/>")
+                   .append("<xs:element name=\"Created\" type=\"xs:dateTime\" minOccurs=\"0\"/>");
+                for (int c = 2 * i + 1; c <= 2 * i + 2 && c < types; c++) {
+                    lib.append("<xs:element name=\"Child").append(c).append("\" type=\"T").append(c)
+                       .append("\" minOccurs=\"0\" maxOccurs=\"unbounded\"/>");
+                }
+                if (i != types - 1) lib.append("<xs:element name=\"Shared\" type=\"T").append(types - 1).append("\" minOccurs=\"0\"/>");
+                lib.append("</xs:sequence><xs:attribute name=\"currency\" type=\"xs:string\"/></xs:complexType>\n");
+            }
+            lib.append("</xs:schema>\n");
+            Path libFile = dir.resolve("lib.xsd");
+            Files.writeString(libFile, lib, StandardCharsets.UTF_8);
+            libFile.toFile().deleteOnExit();
+
+            String msg = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:synthetic:msg\""
+                    + " xmlns:l=\"urn:synthetic:lib\" elementFormDefault=\"qualified\">\n"
+                    + "  <xs:import namespace=\"urn:synthetic:lib\" schemaLocation=\"lib.xsd\"/>\n"
+                    + "  <xs:element name=\"Payload\"><xs:complexType><xs:sequence>"
+                    + "<xs:element name=\"MessageNo\" type=\"xs:string\"/><xs:element name=\"Body\" type=\"l:T0\"/>"
+                    + "</xs:sequence></xs:complexType></xs:element>\n"
+                    + "</xs:schema>\n";
+            Path msgFile = dir.resolve("synthetic-" + types + ".xsd");
+            Files.writeString(msgFile, msg, StandardCharsets.UTF_8);
+            msgFile.toFile().deleteOnExit();
+            return msgFile.toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.ahold.tools.xsd2avro.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** JMH entry point that always adds the GC/allocation profiler ({@code gc.alloc.rate.norm} = bytes per op). */
+public final class BenchmarkMain {
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+    }
+}
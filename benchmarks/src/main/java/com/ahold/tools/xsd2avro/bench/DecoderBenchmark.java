@@ -0,0 +1,56 @@
+package com.ahold.tools.xsd2avro.bench;
+
+import com.ahold.tools.xsd2avro.XmlAvroEncoder;
+import com.ahold.tools.xsd2avro.XmlSchemaJsonGen;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XML -> Avro binary for a document of {@code records} sample messages ({@code samples/<xsd>.xml}),
+ * interpreted vs. the decoder generated for the schema. Compilation happens in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+    @Param({"payload.xsd", "ah.xsd"})
+    public String input;
+    @Param({"interpreted", "compiled"})
+    public String decoder;
+    @Param({"100"})
+    public int records;
+
+    private XmlAvroEncoder encoder;
+    private byte[] xml;
+    private long bytes;
+
+    @Setup
+    public void setup() throws Exception {
+        XmlSchemaJsonGen.Result schema = new XmlSchemaJsonGen(BenchInputs.options(BenchInputs.resolve(input), false, false, false)).generate();
+        encoder = new XmlAvroEncoder(schema, decoder.equals("compiled"));
+        String sample = sample(input.replaceFirst("\\.xsd$", ".xml"));
+        xml = ("<Batch>" + sample.repeat(records) + "</Batch>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long encode() throws Exception {
+        bytes = 0;
+        encoder.encodeAll(new ByteArrayInputStream(xml), (buf, off, len) -> bytes += len);
+        return bytes;
+    }
+
+    private static String sample(String name) throws IOException {
+        try (InputStream in = DecoderBenchmark.class.getResourceAsStream("/samples/" + name)) {
+            if (in == null) throw new IllegalArgumentException("No sample XML for " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
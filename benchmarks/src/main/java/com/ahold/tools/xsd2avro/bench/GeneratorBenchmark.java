@@ -0,0 +1,52 @@
+package com.ahold.tools.xsd2avro.bench;
+
+import com.ahold.tools.xsd2avro.OptionsCli;
+import com.ahold.tools.xsd2avro.SchemaCache;
+import com.ahold.tools.xsd2avro.XmlSchemaJsonGen;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.CharArrayWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type walk for every combination of --flatten-top, --force-string and --nullable-attrs. Parsing is
+ * kept out of the measurement by a warm {@link SchemaCache}, as in a batch run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratorBenchmark {
+    @Param({"payload.xsd", "ah.xsd", "synthetic-200"})
+    public String input;
+    @Param({"false", "true"})
+    public boolean flattenTop;
+    @Param({"false", "true"})
+    public boolean forceString;
+    @Param({"false", "true"})
+    public boolean nullableAttrs;
+
+    private OptionsCli cli;
+    private SchemaCache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        cli = BenchInputs.options(BenchInputs.resolve(input), flattenTop, forceString, nullableAttrs);
+        cache = new SchemaCache();
+        new XmlSchemaJsonGen(cli, cache).generate();
+    }
+
+    @Benchmark
+    public XmlSchemaJsonGen.Result generate() throws Exception {
+        return new XmlSchemaJsonGen(cli, cache).generate();
+    }
+
+    @Benchmark
+    public CharArrayWriter generateAndRender() throws Exception {
+        CharArrayWriter out = new CharArrayWriter(16 * 1024);
+        new XmlSchemaJsonGen(cli, cache).generate().writeTo(out, false);
+        return out;
+    }
+}
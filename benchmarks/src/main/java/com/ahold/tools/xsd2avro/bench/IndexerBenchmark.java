@@ -0,0 +1,57 @@
+package com.ahold.tools.xsd2avro.bench;
+
+import com.ahold.tools.xsd2avro.OptionsCli;
+import com.ahold.tools.xsd2avro.XmlSchemaIndexer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Indexer construction (DOM parse + {@code coll.read} + symbol tables), root selection and lookups. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexerBenchmark {
+    @Param({"payload.xsd", "ah.xsd", "another.xsd", "synthetic-200", "synthetic-2000"})
+    public String input;
+
+    private OptionsCli cli;
+    private XmlSchemaIndexer idx;
+    private List<QName> typeNames;
+    private List<QName> elementNames;
+
+    @Setup
+    public void setup() throws Exception {
+        cli = BenchInputs.options(BenchInputs.resolve(input), false, false, false);
+        idx = new XmlSchemaIndexer(cli);
+        typeNames = new ArrayList<>();
+        elementNames = new ArrayList<>();
+        idx.collection(); // warm
+        for (var s : idx.collection().getXmlSchemas()) {
+            typeNames.addAll(s.getSchemaTypes().keySet());
+            elementNames.addAll(s.getElements().keySet());
+        }
+    }
+
+    @Benchmark
+    public XmlSchemaIndexer construct() throws Exception {
+        return new XmlSchemaIndexer(cli);
+    }
+
+    @Benchmark
+    public Object selectRoot() {
+        return idx.selectRootElement();
+    }
+
+    @Benchmark
+    public void lookups(Blackhole bh) {
+        for (QName q : typeNames) bh.consume(idx.findType(q));
+        for (QName q : elementNames) bh.consume(idx.findElement(q));
+    }
+}
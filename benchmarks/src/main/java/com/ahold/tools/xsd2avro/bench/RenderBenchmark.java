@@ -0,0 +1,37 @@
+package com.ahold.tools.xsd2avro.bench;
+
+import com.ahold.tools.xsd2avro.XmlSchemaJsonGen;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.CharArrayWriter;
+import java.util.concurrent.TimeUnit;
+
+/** JSON rendering of an already generated schema. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"payload.xsd", "ah.xsd", "synthetic-200", "synthetic-2000"})
+    public String input;
+    @Param({"false", "true"})
+    public boolean pretty;
+
+    private XmlSchemaJsonGen.Result result;
+    private CharArrayWriter out;
+
+    @Setup
+    public void setup() throws Exception {
+        result = new XmlSchemaJsonGen(BenchInputs.options(BenchInputs.resolve(input), false, false, false)).generate();
+        out = new CharArrayWriter(64 * 1024);
+    }
+
+    @Benchmark
+    public int render() throws Exception {
+        out.reset();
+        result.writeTo(out, pretty);
+        return out.size();
+    }
+}
@@ -0,0 +1,86 @@
+package com.ahold.tools.xsd2avro;
+
+import java.util.Arrays;
+
+/** Growable byte buffer with the Avro binary primitives. */
+final class AvroBuf {
+    byte[] bytes = new byte[256];
+    int len;
+
+    void reset() { len = 0; }
+
+    private void ensure(int extra) {
+        if (len + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, len + extra));
+    }
+
+    void write(int b) {
+        ensure(1);
+        bytes[len++] = (byte) b;
+    }
+
+    void write(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, bytes, len, n);
+        len += n;
+    }
+
+    void write(AvroBuf b) { write(b.bytes, 0, b.len); }
+
+    /** Zig-zag varint, used for int and long alike. */
+    void writeLong(long v) {
+        ensure(10);
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            bytes[len++] = (byte) ((z & 0x7F) | 0x80);
+            z >>>= 7;
+        }
+        bytes[len++] = (byte) z;
+    }
+
+    void writeFloat(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        ensure(4);
+        for (int i = 0; i < 4; i++) bytes[len++] = (byte) (bits >>> (8 * i));
+    }
+
+    void writeDouble(double d) {
+        long bits = Double.doubleToRawLongBits(d);
+        ensure(8);
+        for (int i = 0; i < 8; i++) bytes[len++] = (byte) (bits >>> (8 * i));
+    }
+
+    /** Length-prefixed UTF-8, encoded straight into the buffer. */
+    void writeString(CharSequence s) {
+        int n = s.length();
+        int utf8 = 0;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) utf8++;
+            else if (c < 0x800) utf8 += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) { utf8 += 4; i++; }
+            else utf8 += 3;
+        }
+        writeLong(utf8);
+        ensure(utf8);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[len++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[len++] = (byte) (0xC0 | (c >> 6));
+                bytes[len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                bytes[len++] = (byte) (0xF0 | (cp >> 18));
+                bytes[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                if (Character.isSurrogate(c)) c = '?'; // unpaired surrogate
+                bytes[len++] = (byte) (0xE0 | (c >> 12));
+                bytes[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes encoded datums as an Avro object container file: header with schema and codec, then
+ * blocks of datums, each followed by the sync marker.
+ *
+ * A block is closed once it holds {@code blockBytes} of uncompressed data (Avro's "sync
+ * interval") or {@code blockRecords} datums. Closed blocks are compressed on the given pool while
+ * the caller keeps encoding; they are written in the order they were closed, so record order is
+ * the order of {@link #datum} calls. At most two blocks per pool thread are in flight.
+ */
+public final class AvroContainerWriter implements XmlAvroEncoder.DatumSink, Closeable {
+    private static final byte[] MAGIC = { 'O', 'b', 'j', 1 };
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<>();
+
+    private final OutputStream out;
+    private final String codec;
+    private final int level;
+    private final int blockBytes;
+    private final int blockRecords;
+    private final ExecutorService compressors;
+    private final int maxInFlight;
+    private final byte[] sync = new byte[16];
+    private final Deque<Future<Block>> pending = new ArrayDeque<>();
+    private final AvroBuf head = new AvroBuf();
+    private AvroBuf block = new AvroBuf();
+    private int count;
+    private long records;
+
+    private record Block(int count, byte[] data, int len) {}
+
+    /**
+     * @param codec        {@code null}, {@code deflate} or {@code deflate:<level 1-9>}
+     * @param blockRecords datums per block at most; 0 for no limit
+     * @param compressors  pool for block compression; {@code null} compresses on the calling thread
+     * @param poolSize     threads of {@code compressors}, bounds the blocks held in memory
+     */
+    public AvroContainerWriter(OutputStream out, String schemaJson, String codec, int blockBytes, int blockRecords,
+                               ExecutorService compressors, int poolSize) throws IOException {
+        String c = codec == null ? "deflate" : codec.trim().toLowerCase();
+        if (c.equals("null")) {
+            this.codec = "null"; this.level = 0;
+        } else if (c.equals("deflate") || c.startsWith("deflate:")) {
+            this.codec = "deflate";
+            this.level = c.equals("deflate") ? Deflater.DEFAULT_COMPRESSION : parseLevel(c.substring("deflate:".length()));
+        } else {
+            throw new IllegalArgumentException("Unsupported codec '" + codec + "' (use null or deflate[:1-9])");
+        }
+        if (blockBytes < 1) throw new IllegalArgumentException("Block size must be positive");
+        this.out = out;
+        this.blockBytes = blockBytes;
+        this.blockRecords = Math.max(0, blockRecords);
+        this.compressors = "null".equals(this.codec) ? null : compressors;
+        this.maxInFlight = this.compressors == null ? 0 : 2 * Math.max(1, poolSize);
+        new SecureRandom().nextBytes(sync);
+        writeHeader(schemaJson);
+    }
+
+    private static int parseLevel(String s) {
+        try {
+            int l = Integer.parseInt(s.trim());
+            if (l >= 1 && l <= 9) return l;
+        } catch (NumberFormatException ignore) {}
+        throw new IllegalArgumentException("Deflate level must be 1-9: " + s);
+    }
+
+    private void writeHeader(String schemaJson) throws IOException {
+        head.write(MAGIC, 0, MAGIC.length);
+        head.writeLong(2); // metadata map: one block of two entries
+        head.writeString("avro.schema");
+        byte[] schema = schemaJson.getBytes(StandardCharsets.UTF_8);
+        head.writeLong(schema.length);
+        head.write(schema, 0, schema.length);
+        head.writeString("avro.codec");
+        head.writeString(codec);
+        head.writeLong(0);
+        head.write(sync, 0, sync.length);
+        out.write(head.bytes, 0, head.len);
+    }
+
+    /** Datums written so far (including those still being compressed). */
+    public long records() { return records; }
+
+    @Override
+    public void datum(byte[] buf, int off, int len) throws IOException {
+        block.write(buf, off, len);
+        count++;
+        records++;
+        if (block.len >= blockBytes || (blockRecords > 0 && count >= blockRecords)) seal();
+    }
+
+    private void seal() throws IOException {
+        if (count == 0) return;
+        AvroBuf raw = block;
+        int n = count;
+        block = new AvroBuf();
+        count = 0;
+        if (compressors == null) {
+            writeBlock(compress(n, raw));
+            return;
+        }
+        pending.addLast(compressors.submit(() -> compress(n, raw)));
+        while (pending.size() > maxInFlight) writeBlock(next());
+    }
+
+    private Block compress(int n, AvroBuf raw) {
+        if ("null".equals(codec)) return new Block(n, raw.bytes, raw.len);
+        Deflater d = DEFLATERS.get();
+        if (d == null) {
+            d = new Deflater(level, true); // raw deflate, as the Avro spec requires
+            DEFLATERS.set(d);
+        }
+        d.reset();
+        d.setLevel(level);
+        d.setInput(raw.bytes, 0, raw.len);
+        d.finish();
+        byte[] buf = new byte[Math.max(64, raw.len / 2)];
+        int len = 0;
+        while (!d.finished()) {
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            len += d.deflate(buf, len, buf.length - len);
+        }
+        return new Block(n, buf, len);
+    }
+
+    private Block next() throws IOException {
+        try {
+            return pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+    }
+
+    private void writeBlock(Block b) throws IOException {
+        head.reset();
+        head.writeLong(b.count());
+        head.writeLong(b.len());
+        out.write(head.bytes, 0, head.len);
+        out.write(b.data(), 0, b.len());
+        out.write(sync);
+    }
+
+    /** Writes the last block and waits for all blocks to be written; closes the stream. */
+    @Override
+    public void close() throws IOException {
+        try {
+            seal();
+            while (!pending.isEmpty()) writeBlock(next());
+            out.flush();
+        } finally {
+            for (Future<Block> f : pending) f.cancel(true);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the intermediate model as Avro schema JSON straight to a {@link Writer}, in one pass
+ * and in one format. Field names must already be unique (see {@link XmlSchemaJsonGen}).
+ *
+ * Named types are defined at their first occurrence and referred to by full name after that.
+ * For {@code --shared-types} the names can be fixed up front (those of an earlier dry run) and
+ * some of them marked as defined elsewhere, so they are only referred to.
+ *
+ * Nesting is kept on an explicit stack of pending output, not the call stack, so records nested
+ * thousands deep write like flat ones.
+ */
+final class AvroSchemaWriter {
+    private final Writer out;
+    private final String ind;
+    private final String nl;
+    private final String typeNs;
+    // Avro names assigned while writing one schema; distinct types never share a name
+    private final Map<Type, String> assigned = new IdentityHashMap<>();
+    private final Set<String> taken = new HashSet<>();
+    private final Set<String> defined = new HashSet<>(); // names whose definition was written (or lives elsewhere)
+    private Type only;          // definition(): every other named type is written as a reference
+    private Set<String> refs;   // definition(): full names referred to
+    private boolean library;    // writeDefinition(): enums and fixed carry their namespace
+    // Pending output, top first: a Type (NULL_TYPE for none), literal JSON, or the rest of a
+    // record's fields or a union's branches
+    private final Deque<Object> todo = new ArrayDeque<>();
+    private static final Object NULL_TYPE = new Object();
+
+    private static final class FieldsLeft {
+        final List<Field> fields; int next;
+        FieldsLeft(List<Field> fields) { this.fields = fields; }
+    }
+
+    private static final class BranchesLeft {
+        final List<Type> branches; int next;
+        BranchesLeft(List<Type> branches) { this.branches = branches; }
+    }
+
+    AvroSchemaWriter(Writer out, boolean pretty, String typeNamespace) {
+        this.out = out;
+        this.ind = pretty ? "  " : "";
+        this.nl  = pretty ? "\n" : "";
+        this.typeNs = typeNamespace != null ? typeNamespace : "xsd2avro.generated";
+    }
+
+    /** With the names of an earlier run; the types named in {@code external} are only referred to. */
+    AvroSchemaWriter(Writer out, boolean pretty, String typeNamespace, Map<Type, String> names, Set<String> external) {
+        this(out, pretty, typeNamespace);
+        assigned.putAll(names);
+        taken.addAll(names.values());
+        defined.addAll(external);
+    }
+
+    void writeRoot(String name, String ns, List<Field> fields, Type self) throws IOException {
+        taken.add(name);
+        defined.add(name);
+        if (self != null) assigned.put(self, name); // recursive references point back at the root
+        writeRecord(name, ns, fields);
+        drain();
+    }
+
+    /** Names given to the named types so far. */
+    Map<Type, String> names() { return assigned; }
+
+    /** Whether the definition of a named type was written (or lives elsewhere). */
+    boolean written(Type t) {
+        String n = assigned.get(t);
+        return n != null && defined.contains(n);
+    }
+
+    /** Standalone definition of a named type, for a types-only schema; nothing if it was written already. */
+    void writeDefinition(Type t) throws IOException {
+        library = true;
+        write(t);
+    }
+
+    /**
+     * Compact definition of {@code t} with every other named type written as a reference, and the
+     * full names of those in {@code refs}. Equal strings mean equal types when the references are.
+     */
+    static String definition(Type t, String typeNamespace, Map<Type, String> names, Set<String> refs) {
+        StringWriter sw = new StringWriter();
+        AvroSchemaWriter w = new AvroSchemaWriter(sw, false, typeNamespace, names, Set.of());
+        w.only = t;
+        w.refs = refs;
+        try { w.write(t); } catch (IOException e) { throw new UncheckedIOException(e); }
+        return sw.toString();
+    }
+
+    private void write(Type t) throws IOException {
+        push(t);
+        drain();
+    }
+
+    private void push(Type t) {
+        todo.push(t != null ? t : NULL_TYPE);
+    }
+
+    private void drain() throws IOException {
+        while (!todo.isEmpty()) {
+            Object o = todo.pop();
+            if (o instanceof String s) out.write(s);
+            else if (o instanceof FieldsLeft f) nextField(f);
+            else if (o instanceof BranchesLeft b) nextBranch(b);
+            else writeType(o == NULL_TYPE ? null : (Type) o);
+        }
+    }
+
+    private void writeRecord(String name, String ns, List<Field> fields) throws IOException {
+        out.write("{"); out.write(nl);
+        out.write(ind); out.write("\"type\": \"record\","); out.write(nl);
+        out.write(ind); out.write("\"name\": "); str(name); out.write(","); out.write(nl);
+        out.write(ind); out.write("\"namespace\": "); str(ns); out.write(","); out.write(nl);
+        out.write(ind); out.write("\"fields\": ["); out.write(nl);
+        todo.push(new FieldsLeft(fields));
+    }
+
+    // Closes the previous field, then opens the next one (its type is written next) or the record
+    private void nextField(FieldsLeft f) throws IOException {
+        List<Field> fields = f.fields;
+        if (f.next > 0) {
+            out.write(nl);
+            out.write(ind); out.write(ind); out.write("}");
+            if (f.next < fields.size()) out.write(",");
+            out.write(nl);
+        }
+        if (f.next == fields.size()) {
+            out.write(ind); out.write("]"); out.write(nl);
+            out.write("}");
+            return;
+        }
+        Field field = fields.get(f.next++);
+        out.write(ind); out.write(ind); out.write("{"); out.write(nl);
+        out.write(ind); out.write(ind); out.write(ind); out.write("\"name\": "); str(field.name); out.write(","); out.write(nl);
+        out.write(ind); out.write(ind); out.write(ind); out.write("\"type\": ");
+        todo.push(f);
+        push(field.type);
+    }
+
+    private void nextBranch(BranchesLeft b) throws IOException {
+        if (b.next == b.branches.size()) { out.write("]"); return; }
+        if (b.next > 0) out.write(",");
+        Type t = b.branches.get(b.next++);
+        todo.push(b);
+        push(t);
+    }
+
+    // Writes t up to its first nested type; the rest is left on the stack
+    private void writeType(Type t) throws IOException {
+        if (t==null) { out.write("\"string\""); return; }
+        if (t.kind == Type.Kind.ARRAY) {
+            out.write("{\"type\":\"array\",\"items\":");
+            todo.push("}");
+            push(t.items);
+            return;
+        }
+        if (t.kind == Type.Kind.UNION && t.branches != null) {
+            out.write("[");
+            if (t.nullable) out.write("\"null\",");
+            todo.push(new BranchesLeft(t.branches));
+            return;
+        }
+        if (t.kind == Type.Kind.UNION && t.nullable) {
+            out.write("[\"null\",");
+            todo.push("]");
+            push(t.items);
+            return;
+        }
+        if (t.kind == Type.Kind.RECORD) {
+            String recName = define(t, t.name!=null?t.name:"Record");
+            if (recName != null) writeRecord(recName, typeNs, t.fields());
+            return;
+        }
+        if (t.kind == Type.Kind.ENUM) {
+            String enumName = define(t, t.name!=null?t.name:"Enum");
+            if (enumName == null) return;
+            out.write("{\"type\":\"enum\",\"name\":"); str(enumName); namespace(); out.write(",\"symbols\":[");
+            for (int i=0;i<(t.symbols!=null?t.symbols.size():0);i++) {
+                if (i>0) out.write(",");
+                str(t.symbols.get(i));
+            }
+            out.write("]}");
+            return;
+        }
+        if (t.kind == Type.Kind.FIXED) {
+            String fixedName = define(t, t.name!=null?t.name:"Fixed");
+            if (fixedName == null) return;
+            out.write("{\"type\":\"fixed\",\"name\":"); str(fixedName); namespace(); out.write(",\"size\":"); out.write(Integer.toString(t.size)); out.write("}");
+            return;
+        }
+        if (t.logical != null) {
+            out.write("{\"type\":\""); out.write(t.kind.avro); out.write("\",\"logicalType\":\""); out.write(t.logical); out.write("\"");
+            if ("decimal".equals(t.logical)) {
+                out.write(",\"precision\":"); out.write(Integer.toString(t.precision));
+                out.write(",\"scale\":"); out.write(Integer.toString(t.scale));
+            }
+            out.write("}");
+            return;
+        }
+        out.write("\""); out.write(t.kind.avro); out.write("\"");
+    }
+
+    /** Name to define {@code t} under, or null after writing a reference to its earlier definition. */
+    private String define(Type t, String base) throws IOException {
+        String n = assigned.get(t);
+        if (n == null) {
+            n = base;
+            for (int i = 1; !taken.add(n); i++) n = base + "_" + i;
+            assigned.put(t, n);
+        }
+        if ((only != null && t != only) || !defined.add(n)) {
+            if (refs != null) refs.add(typeNs + "." + n);
+            str(typeNs + "." + n);
+            return null;
+        }
+        return n;
+    }
+
+    private void namespace() throws IOException {
+        if (library) { out.write(",\"namespace\":"); str(typeNs); }
+    }
+
+    private void str(String s) throws IOException {
+        out.write('"');
+        if (s != null) out.write(s.replace("\\","\\\\").replace("\"","\\\""));
+        out.write('"');
+    }
+}
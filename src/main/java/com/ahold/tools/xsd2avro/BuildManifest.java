@@ -0,0 +1,101 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manifest kept in the output directory by {@code --incremental}. For each root XSD it records
+ * the generated files ({@code /}-separated, more than one with {@code --all-roots}), a hash of
+ * the effective options and content hashes of the root and of every document it
+ * includes/imports (transitively). One tab-separated line per root.
+ */
+final class BuildManifest {
+    static final String FILE_NAME = ".xsd2avro-manifest";
+    private static final String HEADER = "# xsd2avro incremental manifest v1";
+
+    record Entry(List<String> outputs, String options, Map<String, String> inputs) {}
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(); // root uri -> entry
+
+    private BuildManifest(Path file) { this.file = file; }
+
+    static BuildManifest load(File outDir) throws IOException {
+        BuildManifest m = new BuildManifest(outDir.toPath().resolve(FILE_NAME));
+        if (!Files.isRegularFile(m.file)) return m;
+        for (String line : Files.readAllLines(m.file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] p = line.split("\t");
+            if (p.length < 3 || (p.length - 3) % 2 != 0) continue; // unreadable line: just rebuild that root
+            Map<String, String> inputs = new LinkedHashMap<>();
+            for (int i = 3; i < p.length; i += 2) inputs.put(p[i], p[i + 1]);
+            m.entries.put(p[0], new Entry(List.of(p[1].split("/")), p[2], inputs));
+        }
+        return m;
+    }
+
+    /** The recorded outputs when they still exist and neither the options nor any input changed, else null. */
+    List<File> upToDate(String rootUri, String options, File outDir) {
+        Entry e = entries.get(rootUri);
+        if (e == null || !e.options().equals(options)) return null;
+        List<File> out = new ArrayList<>();
+        for (String name : e.outputs()) {
+            File f = new File(outDir, name);
+            if (!f.isFile()) return null;
+            out.add(f);
+        }
+        for (Map.Entry<String, String> in : e.inputs().entrySet()) {
+            if (!in.getValue().equals(hashOf(in.getKey()))) return null;
+        }
+        return out;
+    }
+
+    List<String> inputsOf(String rootUri) {
+        Entry e = entries.get(rootUri);
+        return e == null ? List.of() : List.copyOf(e.inputs().keySet());
+    }
+
+    void put(String rootUri, Entry e) { entries.put(rootUri, e); }
+
+    void remove(String rootUri) { entries.remove(rootUri); }
+
+    void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(HEADER); w.write('\n');
+            for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                Entry v = e.getValue();
+                w.write(String.join("\t", List.of(e.getKey(), String.join("/", v.outputs()), v.options())));
+                for (Map.Entry<String, String> in : v.inputs().entrySet()) {
+                    w.write('\t'); w.write(in.getKey()); w.write('\t'); w.write(in.getValue());
+                }
+                w.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String hashOf(String uri) {
+        try {
+            URI u = URI.create(uri);
+            if (!"file".equalsIgnoreCase(u.getScheme())) return null;
+            Path p = Path.of(u);
+            return Files.isRegularFile(p) ? Digests.sha256Hex(Files.readAllBytes(p)) : null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
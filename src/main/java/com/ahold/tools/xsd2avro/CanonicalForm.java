@@ -0,0 +1,122 @@
+package com.ahold.tools.xsd2avro;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Avro Parsing Canonical Form of a generated schema, rendered straight from the intermediate
+ * model with the names {@link AvroSchemaWriter} gives its types: full names, only the attributes
+ * that matter for parsing (no logical types, no namespaces) in the spec's order, no whitespace.
+ * Names and enum symbols are already plain identifiers, so nothing needs escaping. Like the
+ * writer it keeps nesting on an explicit stack.
+ */
+final class CanonicalForm {
+    private final StringBuilder sb = new StringBuilder(1024);
+    private final Map<Type, String> names;
+    private final String typeNs;
+    private final Map<Type, String> defined = new IdentityHashMap<>(); // full names of the types written so far
+    // Pending output, top first: a type to write, literal text, or the rest of a record or union
+    private final Deque<Object> todo = new ArrayDeque<>();
+
+    /** {@code ns}: namespace of the enclosing record, which unqualified enum and fixed names take. */
+    private record Pending(Type type, String ns) {}
+
+    private static final class Rest {
+        final List<?> items; final String ns; final boolean fields; int next;
+        Rest(List<?> items, String ns, boolean fields) { this.items = items; this.ns = ns; this.fields = fields; }
+    }
+
+    private CanonicalForm(Map<Type, String> names, String typeNs) {
+        this.names = names;
+        this.typeNs = typeNs != null ? typeNs : "xsd2avro.generated";
+    }
+
+    static String of(String rootName, String ns, String typeNs, List<Field> fields, Type self, Map<Type, String> names) {
+        CanonicalForm c = new CanonicalForm(names, typeNs);
+        String full = fullName(ns, rootName);
+        if (self != null) c.defined.put(self, full);
+        c.record(full, ns, fields);
+        while (!c.todo.isEmpty()) {
+            Object o = c.todo.pop();
+            if (o instanceof String s) c.sb.append(s);
+            else if (o instanceof Rest r) c.next(r);
+            else c.type(((Pending) o).type(), ((Pending) o).ns());
+        }
+        return c.sb.toString();
+    }
+
+    private void record(String full, String ns, List<Field> fields) {
+        sb.append("{\"name\":\"").append(full).append("\",\"type\":\"record\",\"fields\":[");
+        todo.push(new Rest(fields, ns, true));
+    }
+
+    // The next field or branch, or the end of the record or union
+    private void next(Rest r) {
+        if (r.fields && r.next > 0) sb.append('}');
+        if (r.next == r.items.size()) { sb.append(r.fields ? "]}" : "]"); return; }
+        Object item = r.items.get(r.next++);
+        todo.push(r);
+        if (r.next > 1) sb.append(',');
+        if (r.fields) {
+            Field f = (Field) item;
+            sb.append("{\"name\":\"").append(f.name).append("\",\"type\":");
+            todo.push(new Pending(f.type, r.ns));
+        } else {
+            todo.push(new Pending((Type) item, r.ns));
+        }
+    }
+
+    private void type(Type t, String ns) {
+        if (t == null) { sb.append("\"string\""); return; }
+        switch (t.kind) {
+            case ARRAY -> {
+                sb.append("{\"type\":\"array\",\"items\":");
+                todo.push("}");
+                todo.push(new Pending(t.items, ns));
+            }
+            case UNION -> {
+                sb.append('[');
+                if (t.nullable) sb.append("\"null\"");
+                List<Type> branches = t.branches != null ? t.branches : List.of(t.items);
+                if (t.nullable && !branches.isEmpty()) sb.append(',');
+                todo.push(new Rest(branches, ns, false));
+            }
+            case RECORD, ENUM, FIXED -> named(t, ns);
+            default -> sb.append('"').append(t.kind.avro).append('"');
+        }
+    }
+
+    private void named(Type t, String ns) {
+        String seen = defined.get(t);
+        if (seen != null) { sb.append('"').append(seen).append('"'); return; }
+        String name = names.get(t);
+        if (t.kind == Type.Kind.RECORD) {
+            String full = fullName(typeNs, name);
+            defined.put(t, full);
+            record(full, typeNs, t.fields());
+            return;
+        }
+        String full = fullName(ns, name);
+        defined.put(t, full);
+        sb.append("{\"name\":\"").append(full).append("\",\"type\":\"").append(t.kind.avro).append('"');
+        if (t.kind == Type.Kind.ENUM) {
+            sb.append(",\"symbols\":[");
+            List<String> symbols = t.symbols != null ? t.symbols : List.of();
+            for (int i = 0; i < symbols.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append('"').append(symbols.get(i)).append('"');
+            }
+            sb.append(']');
+        } else {
+            sb.append(",\"size\":").append(t.size);
+        }
+        sb.append('}');
+    }
+
+    private static String fullName(String ns, String name) {
+        return ns == null || ns.isEmpty() ? name : ns + "." + name;
+    }
+}
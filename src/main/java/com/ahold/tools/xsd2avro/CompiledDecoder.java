@@ -0,0 +1,207 @@
+package com.ahold.tools.xsd2avro;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Base class of the decoders {@link DecoderCompiler} generates: pooled slot buffers and the
+ * parse helpers the generated code calls. Numbers are parsed straight from the character data,
+ * without an intermediate String; error messages are the interpreter's.
+ */
+abstract class CompiledDecoder {
+    private AvroBuf[][] slots = new AvroBuf[8][];
+    private StringBuilder[][] texts = new StringBuilder[8][];
+    private final StringBuilder scratch = new StringBuilder();
+
+    /** {@code r} is on the START_ELEMENT of a root element and is left on its END_ELEMENT. */
+    abstract void decode(XMLStreamReader r, AvroBuf out) throws XMLStreamException;
+
+    /** The {@code n} slot buffers of the record being read at {@code depth}, emptied. */
+    final AvroBuf[] slots(int depth, int n) {
+        if (depth >= slots.length) slots = Arrays.copyOf(slots, depth * 2);
+        AvroBuf[] s = slots[depth];
+        if (s == null || s.length < n) {
+            int old = s == null ? 0 : s.length;
+            s = s == null ? new AvroBuf[n] : Arrays.copyOf(s, n);
+            for (int i = old; i < n; i++) s[i] = new AvroBuf();
+            slots[depth] = s;
+        }
+        for (int i = 0; i < n; i++) s[i].reset();
+        return s;
+    }
+
+    final StringBuilder[] texts(int depth, int n) {
+        if (depth >= texts.length) texts = Arrays.copyOf(texts, depth * 2);
+        StringBuilder[] t = texts[depth];
+        if (t == null || t.length < n) {
+            int old = t == null ? 0 : t.length;
+            t = t == null ? new StringBuilder[n] : Arrays.copyOf(t, n);
+            for (int i = old; i < n; i++) t[i] = new StringBuilder();
+            texts[depth] = t;
+        }
+        for (int i = 0; i < n; i++) t[i].setLength(0);
+        return t;
+    }
+
+    /** Character data of the element, in a buffer reused by the next call. */
+    final CharSequence content(XMLStreamReader r) throws XMLStreamException {
+        scratch.setLength(0);
+        for (int depth = 1; depth > 0; ) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
+            else if (ev == XMLStreamConstants.CHARACTERS || ev == XMLStreamConstants.CDATA || ev == XMLStreamConstants.SPACE) {
+                scratch.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+            }
+        }
+        return scratch;
+    }
+
+    static String text(XMLStreamReader r) throws XMLStreamException { return XmlAvroEncoder.text(r); }
+
+    static void skip(XMLStreamReader r) throws XMLStreamException { XmlAvroEncoder.skip(r); }
+
+    static void markup(XMLStreamReader r, StringBuilder sb) throws XMLStreamException { XmlAvroEncoder.markup(r, sb); }
+
+    static boolean nil(XMLStreamReader r) {
+        String v = r.getAttributeValue(XmlAvroEncoder.XSI, "nil");
+        return v != null && (v.equals("true") || v.equals("1"));
+    }
+
+    static boolean blank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) if (!Character.isWhitespace(s.charAt(i))) return false;
+        return true;
+    }
+
+    // ---- scalars ----
+
+    static int toInt(CharSequence v, XMLStreamReader r, String field) {
+        int b = first(v), e = last(v, b);
+        try {
+            return Integer.parseInt(v, b, e, 10);
+        } catch (RuntimeException ex) {
+            throw invalid("int", v, r, field, ex);
+        }
+    }
+
+    static long toLong(CharSequence v, XMLStreamReader r, String field) {
+        int b = first(v), e = last(v, b);
+        try {
+            return Long.parseLong(v, b, e, 10);
+        } catch (RuntimeException ex) {
+            throw invalid("long", v, r, field, ex);
+        }
+    }
+
+    static float toFloat(CharSequence v, XMLStreamReader r, String field) {
+        try {
+            return Float.parseFloat(XmlAvroEncoder.xsdFloat(v.toString().strip()));
+        } catch (RuntimeException ex) {
+            throw invalid("float", v, r, field, ex);
+        }
+    }
+
+    static double toDouble(CharSequence v, XMLStreamReader r, String field) {
+        try {
+            return Double.parseDouble(XmlAvroEncoder.xsdFloat(v.toString().strip()));
+        } catch (RuntimeException ex) {
+            throw invalid("double", v, r, field, ex);
+        }
+    }
+
+    static boolean toBoolean(CharSequence v, XMLStreamReader r, String field) {
+        int b = first(v), e = last(v, b);
+        if (e - b == 1 && (v.charAt(b) == '1' || v.charAt(b) == '0')) return v.charAt(b) == '1';
+        if (e - b == 4 && CharSequence.compare(v.subSequence(b, e), "true") == 0) return true;
+        if (e - b == 5 && CharSequence.compare(v.subSequence(b, e), "false") == 0) return false;
+        throw invalid("boolean", v, r, field, new IllegalArgumentException("not a boolean"));
+    }
+
+    static byte[] toBytes(CharSequence v, boolean hex, XMLStreamReader r, String field) {
+        try {
+            String s = v.toString().strip();
+            return hex ? HexFormat.of().parseHex(s) : Base64.getMimeDecoder().decode(s);
+        } catch (RuntimeException ex) {
+            throw invalid("bytes", v, r, field, ex);
+        }
+    }
+
+    static byte[] toFixed(CharSequence v, boolean hex, int size, XMLStreamReader r, String field) {
+        try {
+            return XmlAvroEncoder.xsdFixed(v.toString().strip(), hex, size);
+        } catch (RuntimeException ex) {
+            throw invalid("fixed", v, r, field, ex);
+        }
+    }
+
+    static int toDate(CharSequence v, XMLStreamReader r, String field) {
+        try {
+            return XmlAvroEncoder.xsdDate(v.toString().strip());
+        } catch (RuntimeException ex) {
+            throw invalid("date", v, r, field, ex);
+        }
+    }
+
+    static int toTimeMillis(CharSequence v, XMLStreamReader r, String field) {
+        try {
+            return XmlAvroEncoder.xsdTime(v.toString().strip());
+        } catch (RuntimeException ex) {
+            throw invalid("time-millis", v, r, field, ex);
+        }
+    }
+
+    static long toTimestamp(CharSequence v, boolean micros, XMLStreamReader r, String field) {
+        try {
+            return XmlAvroEncoder.xsdDateTime(v.toString().strip(), micros);
+        } catch (RuntimeException ex) {
+            throw invalid(micros ? "timestamp-micros" : "timestamp-millis", v, r, field, ex);
+        }
+    }
+
+    static byte[] toDecimal(CharSequence v, int precision, int scale, XMLStreamReader r, String field) {
+        try {
+            return XmlAvroEncoder.xsdDecimal(v.toString().strip(), precision, scale);
+        } catch (RuntimeException ex) {
+            throw invalid("decimal", v, r, field, ex);
+        }
+    }
+
+    /** Same normalization as the enum symbols in the schema. */
+    static String norm(String v) {
+        String sym = v.toUpperCase().replaceAll("[^A-Z0-9_]", "_");
+        return sym.isEmpty() ? "_" : sym;
+    }
+
+    static void writeBytes(AvroBuf out, byte[] b) {
+        out.writeLong(b.length);
+        out.write(b, 0, b.length);
+    }
+
+    static void writeFixed(AvroBuf out, byte[] b) {
+        out.write(b, 0, b.length);
+    }
+
+    static IllegalArgumentException invalid(String kind, CharSequence v, XMLStreamReader r, String field, Throwable cause) {
+        return new IllegalArgumentException(XmlAvroEncoder.at(r) + "invalid " + kind + " '" + v + "' for field '" + field + "'", cause);
+    }
+
+    static IllegalArgumentException missing(XMLStreamReader r, String field) {
+        return new IllegalArgumentException(XmlAvroEncoder.at(r) + "missing required value for field '" + field + "'");
+    }
+
+    private static int first(CharSequence v) {
+        int b = 0;
+        while (b < v.length() && Character.isWhitespace(v.charAt(b))) b++;
+        return b;
+    }
+
+    private static int last(CharSequence v, int b) {
+        int e = v.length();
+        while (e > b && Character.isWhitespace(v.charAt(e - 1))) e--;
+        return e;
+    }
+}
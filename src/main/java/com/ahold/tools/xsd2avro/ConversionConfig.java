@@ -0,0 +1,104 @@
+package com.ahold.tools.xsd2avro;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable settings that shape a generated schema, without the CLI's input, output and batch
+ * settings. Build it once and share it between threads and conversions ({@link XsdConverter}).
+ *
+ * @param forceString lower-case names of the fields coerced to string
+ * @param includePaths element paths from the root (e.g. {@code Payload/Header}) that are kept,
+ *                     everything else is cut off; empty for the whole schema
+ */
+public record ConversionConfig(String rootName, String namespace, String avroName, boolean flattenTop,
+                               Set<String> forceString, boolean nullableAttrs, boolean logicalTypes,
+                               String timestampPrecision, boolean narrow, String choice, List<String> includePaths) {
+
+    public static final ConversionConfig DEFAULTS = builder().build();
+
+    public ConversionConfig {
+        rootName = blankToNull(rootName);
+        namespace = blankToNull(namespace);
+        avroName = blankToNull(avroName);
+        Set<String> force = new LinkedHashSet<>();
+        if (forceString != null) for (String s : forceString) if (s != null && !s.isBlank()) force.add(s.trim().toLowerCase());
+        forceString = Set.copyOf(force);
+        if (timestampPrecision == null) timestampPrecision = "millis";
+        if (!timestampPrecision.matches("millis|micros")) throw new IllegalArgumentException("timestampPrecision must be millis or micros");
+        if (choice == null) choice = "union";
+        if (!choice.matches("union|flat|string")) throw new IllegalArgumentException("choice must be union, flat or string");
+        List<String> paths = new ArrayList<>();
+        if (includePaths != null) {
+            for (String p : includePaths) {
+                String path = p == null ? "" : p.trim().replaceAll("^/+|/+$", "").replaceAll("/+", "/");
+                if (!path.isEmpty() && !paths.contains(path)) paths.add(path);
+            }
+        }
+        includePaths = List.copyOf(paths);
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    public Builder toBuilder() {
+        return new Builder().rootName(rootName).namespace(namespace).avroName(avroName).flattenTop(flattenTop)
+                .forceString(forceString).nullableAttrs(nullableAttrs).logicalTypes(logicalTypes)
+                .timestampPrecision(timestampPrecision).narrow(narrow).choice(choice).includePaths(includePaths);
+    }
+
+    /** The generation options of a command line. */
+    static ConversionConfig of(OptionsCli cli) {
+        Set<String> force = new LinkedHashSet<>();
+        if (cli.forceString != null) for (String s : cli.forceString.split(",")) force.add(s);
+        List<String> include = cli.includePath != null ? List.of(cli.includePath.split(",")) : List.of();
+        return new ConversionConfig(cli.rootName, cli.namespace, cli.avroName, cli.flattenTop, force, cli.nullableAttrs,
+                cli.logicalTypes, cli.timestampPrecision, cli.narrow, cli.choice, include);
+    }
+
+    /** The settings that change how a single XSD type converts (key of the per-generation type cache). */
+    String conversionKey() {
+        return "nullableAttrs=" + nullableAttrs + ",narrow=" + narrow + ",choice=" + choice
+                + (logicalTypes ? ",logicalTypes=" + timestampPrecision : "");
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s;
+    }
+
+    public static final class Builder {
+        private String rootName, namespace, avroName;
+        private boolean flattenTop, nullableAttrs, logicalTypes, narrow;
+        private Set<String> forceString = Set.of();
+        private String timestampPrecision = "millis";
+        private String choice = "union";
+        private List<String> includePaths = List.of();
+
+        private Builder() {}
+
+        /** Global element to convert; default "Payload", else the first global element. */
+        public Builder rootName(String v) { rootName = v; return this; }
+        /** Avro namespace; default derived from the targetNamespace. */
+        public Builder namespace(String v) { namespace = v; return this; }
+        /** Name of the root record; default the root element's name. */
+        public Builder avroName(String v) { avroName = v; return this; }
+        public Builder flattenTop(boolean v) { flattenTop = v; return this; }
+        /** Field names (case-insensitive) coerced to string. */
+        public Builder forceString(Set<String> v) { forceString = v; return this; }
+        public Builder nullableAttrs(boolean v) { nullableAttrs = v; return this; }
+        public Builder logicalTypes(boolean v) { logicalTypes = v; return this; }
+        /** millis | micros */
+        public Builder timestampPrecision(String v) { timestampPrecision = v; return this; }
+        public Builder narrow(boolean v) { narrow = v; return this; }
+        /** union | flat | string */
+        public Builder choice(String v) { choice = v; return this; }
+        /** Element paths from the root to keep, e.g. {@code Payload/Lines/Line}; default all. */
+        public Builder includePaths(List<String> v) { includePaths = v; return this; }
+
+        public ConversionConfig build() {
+            return new ConversionConfig(rootName, namespace, avroName, flattenTop, forceString, nullableAttrs,
+                    logicalTypes, timestampPrecision, narrow, choice, includePaths);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.ahold.tools.xsd2avro;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@code --serve}: local HTTP conversion service, so pipelines don't pay a JVM start per schema.
+ *
+ * <pre>
+ *   POST /convert?flatten-top&amp;pretty          body = XSD document
+ *   GET  /convert?path=orders/order.xsd&amp;pretty  XSD below the --in root
+ * </pre>
+ * Query parameters are the generation options of the CLI. Results are kept in an LRU keyed by
+ * the XSD's URI, content hash and the options; a hit is re-validated against the content of the
+ * included/imported documents it was built from, and only those are checked for changes on disk.
+ * Each request's XSD is compiled on its own, so requests never see each other's type definitions.
+ * Handlers run on virtual threads, conversions are bounded by {@code --max-concurrent}. Uploads
+ * are limited to {@value #MAX_UPLOAD} bytes. Binds to the loopback interface only.
+ */
+final class ConversionServer {
+    private static final Set<String> FLAGS = Set.of("pretty", "flatten-top", "nullable-attrs", "logical-types", "narrow");
+    private static final Set<String> VALUES = Set.of("root-name", "namespace", "avro-name", "force-string", "timestamp-precision", "choice", "include-path");
+    static final int MAX_UPLOAD = 16 << 20;
+
+    private record Cached(byte[] avsc, String fingerprint, Map<String, String> inputs) {}
+
+    private final OptionsCli cli;
+    private final Path root;
+    private final Semaphore permits;
+    private final Map<String, Cached> results;
+    private final SchemaCache cache = new SchemaCache();
+    private SchemaCache uploadCache = new SchemaCache();
+    private int uploads;
+
+    ConversionServer(OptionsCli cli) throws IOException {
+        this.cli = cli;
+        Path in = (cli.in != null ? cli.in : new File(".")).getAbsoluteFile().toPath().normalize();
+        if (!Files.isDirectory(in)) throw new IllegalArgumentException("--in must be a directory in --serve mode: " + in);
+        this.root = in.toRealPath(); // requests are compared by real path, so symlinks cannot leave it
+        this.permits = new Semaphore(cli.maxConcurrent);
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > cli.cacheSize;
+            }
+        };
+    }
+
+    void start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), cli.port), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/convert", this::handleConvert);
+        server.createContext("/health", ex -> reply(ex, 200, "text/plain", "ok\n".getBytes(StandardCharsets.UTF_8)));
+        server.start();
+        System.out.println("Serving on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + "/convert (root " + root + ", max-concurrent " + cli.maxConcurrent + ")");
+    }
+
+    private void handleConvert(HttpExchange ex) throws IOException {
+        try (ex) {
+            try {
+                convert(ex);
+            } catch (Exception e) {
+                // e.g. an include that became unreadable: answer instead of dropping the connection
+                if (ex.getResponseCode() < 0) {
+                    reply(ex, 500, "text/plain", ("Server error: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    private void convert(HttpExchange ex) throws IOException {
+        String method = ex.getRequestMethod();
+        if (!"GET".equals(method) && !"POST".equals(method)) {
+            reply(ex, 405, "text/plain", "Use GET with ?path= or POST the XSD\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+        OptionsCli opts;
+        try {
+            opts = options(q);
+        } catch (ParseException | IllegalArgumentException e) {
+            reply(ex, 400, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        byte[] content;
+        File xsd;
+        SchemaCache c;
+        if (q.containsKey("path")) {
+            Path p = root.resolve(q.get("path")).normalize();
+            if (!p.startsWith(root)) { reply(ex, 403, "text/plain", "path outside root\n".getBytes(StandardCharsets.UTF_8)); return; }
+            if (!Files.isRegularFile(p)) { reply(ex, 404, "text/plain", "not found\n".getBytes(StandardCharsets.UTF_8)); return; }
+            p = p.toRealPath();
+            if (!p.startsWith(root)) { reply(ex, 403, "text/plain", "path outside root\n".getBytes(StandardCharsets.UTF_8)); return; }
+            xsd = p.toFile();
+            content = Files.readAllBytes(p);
+            c = cache;
+        } else if ("POST".equals(method)) {
+            try (InputStream in = ex.getRequestBody()) { content = in.readNBytes(MAX_UPLOAD + 1); }
+            if (content.length > MAX_UPLOAD) {
+                reply(ex, 413, "text/plain", ("XSD larger than " + MAX_UPLOAD + " bytes\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            // Uploads live in the in-memory catalog only; relative imports resolve against the root
+            xsd = root.resolve(".upload-" + Digests.sha256Hex(content) + ".xsd").toFile();
+            c = uploadCache(); // separate from ?path= requests, every upload is a root of its own
+            c.register(xsd.toURI().toString(), content);
+        } else {
+            reply(ex, 400, "text/plain", "missing ?path= (or POST the XSD)\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        opts.in = xsd;
+
+        // Relative includes/imports resolve against the document's URI, so it is part of the key
+        String key = xsd.toURI() + "|" + Digests.sha256Hex(content) + "|" + opts.outputFingerprint();
+        Cached hit = lookup(key, c);
+        if (hit != null) {
+            ex.getResponseHeaders().set("X-Cache", "HIT");
+            ex.getResponseHeaders().set("X-Avro-Fingerprint", hit.fingerprint());
+            reply(ex, 200, "application/json", hit.avsc());
+            return;
+        }
+
+        permits.acquireUninterruptibly();
+        try {
+            c.refreshStale(); // a new root may include any document read before
+            XmlSchemaJsonGen gen = new XmlSchemaJsonGen(opts, c);
+            XmlSchemaJsonGen.Result res = gen.generate();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try (Writer w = new OutputStreamWriter(buf, StandardCharsets.UTF_8)) {
+                res.writeTo(w, opts.pretty);
+            }
+            Map<String, String> inputs = new LinkedHashMap<>();
+            for (String uri : gen.sourceUris()) inputs.put(uri, c.contentHash(uri));
+            Cached done = new Cached(buf.toByteArray(), HexFormat.of().toHexDigits(res.fingerprint()), inputs);
+            synchronized (results) { results.put(key, done); }
+            ex.getResponseHeaders().set("X-Cache", "MISS");
+            ex.getResponseHeaders().set("X-Avro-Fingerprint", done.fingerprint());
+            reply(ex, 200, "application/json", done.avsc());
+        } catch (Exception e) {
+            reply(ex, 422, "text/plain", ("Conversion failed: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Cached lookup(String key, SchemaCache c) {
+        Cached hit;
+        synchronized (results) { hit = results.get(key); }
+        if (hit == null) return null;
+        c.refreshStale(hit.inputs().keySet());
+        for (Map.Entry<String, String> in : hit.inputs().entrySet()) {
+            try {
+                if (!in.getValue().equals(c.contentHash(in.getKey()))) return null;
+            } catch (RuntimeException gone) {
+                return null;
+            }
+        }
+        return hit;
+    }
+
+    // Every distinct upload stays in the catalog; start over once there are many
+    private synchronized SchemaCache uploadCache() {
+        if (++uploads > cli.cacheSize) {
+            uploadCache = new SchemaCache();
+            uploads = 1;
+        }
+        return uploadCache;
+    }
+
+    private OptionsCli options(Map<String, String> q) throws ParseException {
+        List<String> args = new ArrayList<>();
+        for (Map.Entry<String, String> e : q.entrySet()) {
+            String k = e.getKey();
+            if ("path".equals(k)) continue;
+            if (FLAGS.contains(k)) {
+                if (e.getValue().isEmpty() || Boolean.parseBoolean(e.getValue())) args.add("--" + k);
+            } else if (VALUES.contains(k)) {
+                args.add("--" + k);
+                args.add(e.getValue());
+            } else {
+                throw new IllegalArgumentException("Unsupported parameter: " + k);
+            }
+        }
+        return OptionsCli.parse(args.toArray(new String[0]));
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> q = new LinkedHashMap<>();
+        if (raw == null || raw.isEmpty()) return q;
+        for (String part : raw.split("&")) {
+            if (part.isEmpty()) continue;
+            int i = part.indexOf('=');
+            String k = URLDecoder.decode(i < 0 ? part : part.substring(0, i), StandardCharsets.UTF_8);
+            String v = i < 0 ? "" : URLDecoder.decode(part.substring(i + 1), StandardCharsets.UTF_8);
+            q.put(k, v);
+        }
+        return q;
+    }
+
+    private static void reply(HttpExchange ex, int status, String contentType, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+    }
+}
@@ -0,0 +1,204 @@
+package com.ahold.tools.xsd2avro;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Per-conversion counters: wall time and allocated bytes per phase, plus types visited, cache
+ * hits and bytes written. Every phase is also emitted as a JFR event ({@code xsd2avro.Phase},
+ * one {@code xsd2avro.Conversion} per file), so a recording taken with
+ * {@code -XX:StartFlightRecording} shows where a slow batch spends its time.
+ *
+ * A conversion runs on one thread, so the counters are plain fields; allocation is measured with
+ * the per-thread allocation counter of the HotSpot {@code ThreadMXBean}.
+ */
+final class ConversionStats {
+    enum Phase {
+        PARSE("parse"),     // DOM build of the root document
+        COMPILE("compile"), // XmlSchemaCollection.read, incl. resolving includes/imports
+        INDEX("index"),     // reachable documents + merged symbol tables
+        WALK("walk"),       // XSD -> Avro model
+        WRITE("write");     // JSON rendering + file write
+
+        final String label;
+        Phase(String label) { this.label = label; }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    final String file;
+    final long[] nanos = new long[Phase.values().length];
+    final long[] allocated = new long[Phase.values().length];
+    long typesVisited;
+    long typeCacheHits;
+    long schemaCacheHits;
+    long bytesWritten;
+    private final ConversionEvent event = new ConversionEvent();
+
+    ConversionStats(String file) {
+        this.file = file;
+        event.begin();
+    }
+
+    /** Measures one phase until the returned span is closed. */
+    Span phase(Phase p) { return new Span(p); }
+
+    /** Ends the conversion and commits its JFR event. */
+    void finish() {
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file;
+            event.typesVisited = typesVisited;
+            event.typeCacheHits = typeCacheHits;
+            event.schemaCacheHits = schemaCacheHits;
+            event.bytesWritten = bytesWritten;
+            event.allocated = total(allocated);
+            event.commit();
+        }
+    }
+
+    final class Span implements AutoCloseable {
+        private final Phase phase;
+        private final PhaseEvent ev = new PhaseEvent();
+        private final long t0 = System.nanoTime();
+        private final long a0 = allocatedBytes();
+
+        private Span(Phase phase) {
+            this.phase = phase;
+            ev.begin();
+        }
+
+        @Override
+        public void close() {
+            long dt = System.nanoTime() - t0;
+            long da = Math.max(0, allocatedBytes() - a0);
+            nanos[phase.ordinal()] += dt;
+            allocated[phase.ordinal()] += da;
+            ev.end();
+            if (ev.shouldCommit()) {
+                ev.file = file;
+                ev.phase = phase.label;
+                ev.allocated = da;
+                ev.commit();
+            }
+        }
+    }
+
+    /** Per-file rows plus an aggregate row, in the order given. */
+    static void printTable(List<ConversionStats> all, PrintStream out) {
+        int w = "TOTAL".length();
+        for (ConversionStats s : all) w = Math.max(w, s.file.length());
+        StringBuilder head = new StringBuilder(String.format("%-" + w + "s", "File"));
+        for (Phase p : Phase.values()) head.append(String.format(" %10s", p.label + " ms"));
+        head.append(String.format(" %10s %7s %7s %10s", "alloc MB", "types", "hits", "bytes"));
+        out.println(head);
+        ConversionStats total = new ConversionStats("TOTAL");
+        for (ConversionStats s : all) {
+            out.println(row(s, w));
+            total.add(s);
+        }
+        out.println(row(total, w));
+    }
+
+    private static String row(ConversionStats s, int w) {
+        StringBuilder sb = new StringBuilder(String.format("%-" + w + "s", s.file));
+        for (Phase p : Phase.values()) sb.append(String.format(" %10.2f", s.nanos[p.ordinal()] / 1e6));
+        sb.append(String.format(" %10.2f %7d %7d %10d", total(s.allocated) / (1024.0 * 1024.0),
+                s.typesVisited, s.typeCacheHits + s.schemaCacheHits, s.bytesWritten));
+        return sb.toString();
+    }
+
+    /** Machine-readable variant of {@link #printTable} for trend tracking. */
+    static void writeJson(List<ConversionStats> all, Path file) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n  \"files\": [");
+        ConversionStats total = new ConversionStats("TOTAL");
+        for (int i = 0; i < all.size(); i++) {
+            sb.append(i == 0 ? "\n    " : ",\n    ");
+            all.get(i).json(sb, true);
+            total.add(all.get(i));
+        }
+        sb.append(all.isEmpty() ? "],\n  \"total\": " : "\n  ],\n  \"total\": ");
+        total.json(sb, false);
+        sb.append("\n}\n");
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        Files.writeString(file, sb, StandardCharsets.UTF_8);
+    }
+
+    private void json(StringBuilder sb, boolean withFile) {
+        sb.append('{');
+        if (withFile) sb.append("\"file\": \"").append(file.replace("\\", "\\\\").replace("\"", "\\\"")).append("\", ");
+        sb.append("\"phases\": {");
+        for (Phase p : Phase.values()) {
+            if (p.ordinal() > 0) sb.append(", ");
+            sb.append('"').append(p.label).append("\": {\"nanos\": ").append(nanos[p.ordinal()])
+              .append(", \"allocatedBytes\": ").append(allocated[p.ordinal()]).append('}');
+        }
+        sb.append("}, \"typesVisited\": ").append(typesVisited)
+          .append(", \"typeCacheHits\": ").append(typeCacheHits)
+          .append(", \"schemaCacheHits\": ").append(schemaCacheHits)
+          .append(", \"bytesWritten\": ").append(bytesWritten).append('}');
+    }
+
+    private void add(ConversionStats o) {
+        for (int i = 0; i < nanos.length; i++) { nanos[i] += o.nanos[i]; allocated[i] += o.allocated[i]; }
+        typesVisited += o.typesVisited;
+        typeCacheHits += o.typeCacheHits;
+        schemaCacheHits += o.schemaCacheHits;
+        bytesWritten += o.bytesWritten;
+    }
+
+    private static long total(long[] a) {
+        long t = 0;
+        for (long v : a) t += v;
+        return t;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS == null) return 0;
+        long v = THREADS.getCurrentThreadAllocatedBytes();
+        return v < 0 ? 0 : v; // -1 when unsupported (e.g. virtual threads)
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t
+                    && t.isThreadAllocatedMemorySupported()) {
+                if (!t.isThreadAllocatedMemoryEnabled()) t.setThreadAllocatedMemoryEnabled(true);
+                return t;
+            }
+        } catch (UnsupportedOperationException | SecurityException ignore) {}
+        return null;
+    }
+
+    @Name("xsd2avro.Phase")
+    @Label("xsd2avro Phase")
+    @Category("xsd2avro")
+    static final class PhaseEvent extends Event {
+        @Label("File") String file;
+        @Label("Phase") String phase;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+
+    @Name("xsd2avro.Conversion")
+    @Label("xsd2avro Conversion")
+    @Category("xsd2avro")
+    static final class ConversionEvent extends Event {
+        @Label("File") String file;
+        @Label("Types Visited") long typesVisited;
+        @Label("Type Cache Hits") long typeCacheHits;
+        @Label("Schema Cache Hits") long schemaCacheHits;
+        @Label("Bytes Written") @DataAmount long bytesWritten;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+}
@@ -0,0 +1,435 @@
+package com.ahold.tools.xsd2avro;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.ahold.tools.xsd2avro.XmlAvroEncoder.Kind;
+import com.ahold.tools.xsd2avro.XmlAvroEncoder.Lookup;
+import com.ahold.tools.xsd2avro.XmlAvroEncoder.Node;
+import com.ahold.tools.xsd2avro.XmlAvroEncoder.Plan;
+
+/**
+ * Generates a {@link CompiledDecoder} specialized to one schema and compiles it at runtime into a
+ * hidden class. It decodes exactly like the {@link XmlAvroEncoder} interpreter, but every record
+ * is a method of its own: element and attribute names are {@code switch} cases, scalar fields are
+ * primitive locals written out in field order, and nothing is looked up in a map or boxed.
+ *
+ * Needs the {@code javax.tools} compiler, i.e. a JDK rather than a JRE.
+ */
+final class DecoderCompiler {
+    static final String CLASS = "GeneratedDecoder";
+
+    private final Map<Plan, Integer> plans = new IdentityHashMap<>();
+    private final List<Plan> order = new ArrayList<>();
+    private final Map<Node, String> enums = new IdentityHashMap<>();
+    private final StringBuilder src = new StringBuilder();
+    private int labels;
+
+    private DecoderCompiler() {}
+
+    /** Java source of the decoder for {@code root}; {@code rootIsRecord} as in the encoder. */
+    static String source(Plan root, boolean rootIsRecord) {
+        return new DecoderCompiler().generate(root, rootIsRecord);
+    }
+
+    /**
+     * Compiles the decoder for {@code root}; the result creates instances (one per thread).
+     *
+     * @throws IllegalStateException when no compiler is available or compilation fails
+     */
+    static Supplier<CompiledDecoder> compile(Plan root, boolean rootIsRecord) {
+        byte[] bytes = javac(source(root, rootIsRecord));
+        try {
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle ctor = hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class));
+            return () -> {
+                try {
+                    return (CompiledDecoder) ctor.invoke();
+                } catch (Throwable t) {
+                    throw new IllegalStateException("Cannot instantiate generated decoder", t);
+                }
+            };
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Cannot define generated decoder: " + e, e);
+        }
+    }
+
+    // ---- source ----
+
+    private String generate(Plan root, boolean rootIsRecord) {
+        id(root);
+        src.append("package com.ahold.tools.xsd2avro;\n\n")
+           .append("import javax.xml.stream.XMLStreamConstants;\n")
+           .append("import javax.xml.stream.XMLStreamException;\n")
+           .append("import javax.xml.stream.XMLStreamReader;\n\n")
+           .append("final class ").append(CLASS).append(" extends CompiledDecoder {\n")
+           .append("    @Override\n")
+           .append("    void decode(XMLStreamReader r, AvroBuf out) throws XMLStreamException {\n")
+           .append("        ").append(rootIsRecord ? "r0(r, out, 0);" : "c0(r, out);").append('\n')
+           .append("    }\n");
+        if (!rootIsRecord) method(root, "c0", true);
+        for (int i = rootIsRecord ? 0 : 1; i < order.size(); i++) method(order.get(i), "r" + i, false); // grows while emitting
+        for (Map.Entry<Node, String> e : enums.entrySet()) enumMethod(e.getKey(), e.getValue());
+        return src.append("}\n").toString();
+    }
+
+    private int id(Plan p) {
+        Integer id = plans.get(p);
+        if (id == null) {
+            id = order.size();
+            plans.put(p, id);
+            order.add(p);
+        }
+        return id;
+    }
+
+    // asChild: r is on a child element of the record (root element of a non-record root), not on the record's own element
+    private void method(Plan p, String name, boolean asChild) {
+        int n = p.nodes.length;
+        for (Node nd : p.nodes) {
+            if (nd.kind == Kind.CHOICE) throw new IllegalStateException("xs:choice unions are only decoded by the interpreter (--choice flat compiles)");
+        }
+        src.append("\n    private void ").append(name).append(asChild ? "(XMLStreamReader r, AvroBuf out)" : "(XMLStreamReader r, AvroBuf out, int depth)")
+           .append(" throws XMLStreamException {\n");
+        if (asChild) src.append("        int depth = 0;\n");
+        if (usesSlots(p)) src.append("        AvroBuf[] s = slots(depth, ").append(n).append(");\n");
+        if (usesTexts(p)) src.append("        StringBuilder[] t = texts(depth, ").append(n).append(");\n");
+        for (int i = 0; i < n; i++) {
+            Node nd = p.nodes[i];
+            if (opaque(p, i)) continue;
+            if (nd.array) src.append("        int c").append(i).append(" = 0;\n");
+            else {
+                String type = local(nd);
+                if (type != null) src.append("        ").append(type).append(" v").append(i).append(" = ").append(zero(type)).append(";\n");
+                src.append("        boolean h").append(i).append(" = false;\n");
+            }
+        }
+        if (asChild) child(p, p.lookup, 2, 0);
+        else fill(p, p.lookup, 2, 0);
+        finish(p);
+        src.append("    }\n");
+    }
+
+    // r is on the START_ELEMENT whose attributes, children and text go through lk
+    private void fill(Plan p, Lookup lk, int ind, int level) {
+        String a = "a" + level, na = "na" + level, label = "L" + (labels++);
+        if (!lk.attributes.isEmpty()) {
+            line(ind, "for (int " + a + " = 0, " + na + " = r.getAttributeCount(); " + a + " < " + na + "; " + a + "++) {");
+            line(ind + 1, "switch (r.getAttributeLocalName(" + a + ")) {");
+            for (Map.Entry<String, Integer> e : lk.attributes.entrySet()) {
+                int i = e.getValue();
+                line(ind + 2, "case " + lit(e.getKey()) + " -> {");
+                line(ind + 3, "if (" + (p.nodes[i].array ? "c" + i + " == 0" : "!h" + i) + ") {");
+                assign(p, i, "r.getAttributeValue(" + a + ")", ind + 4);
+                line(ind + 3, "}");
+                line(ind + 2, "}");
+            }
+            line(ind + 2, "default -> { }");
+            line(ind + 1, "}");
+            line(ind, "}");
+        }
+        line(ind, label + ":");
+        line(ind, "while (true) {");
+        line(ind + 1, "switch (r.next()) {");
+        line(ind + 2, "case XMLStreamConstants.START_ELEMENT -> {");
+        child(p, lk, ind + 3, level);
+        line(ind + 2, "}");
+        line(ind + 2, "case XMLStreamConstants.END_ELEMENT -> { break " + label + "; }");
+        if (lk.text >= 0) {
+            line(ind + 2, "case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->");
+            line(ind + 4, "t[" + lk.text + "].append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());");
+        }
+        line(ind + 2, "default -> { }");
+        line(ind + 1, "}");
+        line(ind, "}");
+        if (lk.text >= 0) {
+            int i = lk.text;
+            boolean string = p.nodes[i].kind == Kind.STRING;
+            if (!string) line(ind, "if (!blank(t[" + i + "])) {");
+            assign(p, i, "t[" + i + "]", string ? ind : ind + 1);
+            if (!string) line(ind, "}");
+        }
+    }
+
+    // r is on a START_ELEMENT inside the element lk reads; consumes it
+    private void child(Plan p, Lookup lk, int ind, int level) {
+        Set<String> names = new LinkedHashSet<>(lk.elements.keySet());
+        names.addAll(lk.via.keySet());
+        if (names.isEmpty()) {
+            fallback(p, lk, null, ind, level);
+            return;
+        }
+        line(ind, "switch (r.getLocalName()) {");
+        for (String name : names) {
+            line(ind + 1, "case " + lit(name) + " -> {");
+            int[] candidates = lk.elements.get(name);
+            if (candidates == null) {
+                fallback(p, lk, name, ind + 2, level);
+            } else {
+                boolean open = true;
+                for (int k = 0; k < candidates.length && open; k++) {
+                    int i = candidates[k];
+                    Node nd = p.nodes[i];
+                    if (nd.array) {
+                        line(ind + 2, k == 0 ? "{" : "} else {");
+                        open = false;
+                    } else {
+                        line(ind + 2, (k == 0 ? "if (!h" : "} else if (!h") + i + ") {");
+                    }
+                    element(p, i, ind + 3);
+                }
+                if (open) {
+                    line(ind + 2, "} else {");
+                    fallback(p, lk, name, ind + 3, level);
+                }
+                line(ind + 2, "}");
+            }
+            line(ind + 1, "}");
+        }
+        line(ind + 1, "default -> {");
+        fallback(p, lk, null, ind + 2, level);
+        line(ind + 1, "}");
+        line(ind, "}");
+    }
+
+    // An element none of lk's fields takes (any more): flattened child, markup for choice/any, or skipped
+    private void fallback(Plan p, Lookup lk, String name, int ind, int level) {
+        Lookup via = name == null ? null : lk.via.get(name);
+        if (via != null) fill(p, via, ind, level + 1);
+        else if (lk.opaque >= 0) line(ind, "markup(r, t[" + lk.opaque + "]);");
+        else line(ind, "skip(r);");
+    }
+
+    // Element for field i; xsi:nil leaves it unset
+    private void element(Plan p, int i, int ind) {
+        Node nd = p.nodes[i];
+        line(ind, "if (nil(r)) {");
+        line(ind + 1, "skip(r);");
+        line(ind, "} else {");
+        if (nd.kind == Kind.RECORD) {
+            line(ind + 1, "r" + id(nd.record) + "(r, s[" + i + "], depth + 1);");
+            line(ind + 1, nd.array ? "c" + i + "++;" : "h" + i + " = true;");
+        } else if (nd.kind == Kind.NULL) {
+            line(ind + 1, "skip(r);");
+            line(ind + 1, nd.array ? "c" + i + "++;" : "h" + i + " = true;");
+        } else {
+            assign(p, i, nd.kind == Kind.STRING ? "text(r)" : "content(r)", ind + 1);
+        }
+        line(ind, "}");
+    }
+
+    // Stores value (a CharSequence expression) into field i
+    private void assign(Plan p, int i, String value, int ind) {
+        Node nd = p.nodes[i];
+        String field = lit(p.fields[i].name);
+        String v = switch (nd.kind) {
+            case INT -> "toInt(" + value + ", r, " + field + ")";
+            case LONG -> "toLong(" + value + ", r, " + field + ")";
+            case FLOAT -> "toFloat(" + value + ", r, " + field + ")";
+            case DOUBLE -> "toDouble(" + value + ", r, " + field + ")";
+            case BOOLEAN -> "toBoolean(" + value + ", r, " + field + ")";
+            case BYTES -> "toBytes(" + value + ", " + nd.hex + ", r, " + field + ")";
+            case FIXED -> "toFixed(" + value + ", " + nd.hex + ", " + nd.size + ", r, " + field + ")";
+            case DATE -> "toDate(" + value + ", r, " + field + ")";
+            case TIME_MILLIS -> "toTimeMillis(" + value + ", r, " + field + ")";
+            case TIMESTAMP_MILLIS, TIMESTAMP_MICROS ->
+                    "toTimestamp(" + value + ", " + (nd.kind == Kind.TIMESTAMP_MICROS) + ", r, " + field + ")";
+            case DECIMAL -> "toDecimal(" + value + ", " + nd.precision + ", " + nd.scale + ", r, " + field + ")";
+            case ENUM -> enumName(nd) + "(" + value + ", r, " + field + ")";
+            case STRING -> value.startsWith("text(") ? value : value + ".toString()";
+            case NULL -> null;
+            case RECORD, CHOICE -> throw new IllegalStateException(nd.kind.label() + " is not a scalar");
+        };
+        if (nd.array) {
+            if (v != null) line(ind, write(nd.kind, "s[" + i + "]", v) + ";");
+            line(ind, "c" + i + "++;");
+        } else {
+            if (v != null) line(ind, "v" + i + " = " + v + ";");
+            line(ind, "h" + i + " = true;");
+        }
+    }
+
+    // Fields in schema order, as Frame.finish
+    private void finish(Plan p) {
+        for (int i = 0; i < p.nodes.length; i++) {
+            Node nd = p.nodes[i];
+            String field = lit(p.fields[i].name);
+            if (opaque(p, i)) {
+                line(2, "out.writeString(t[" + i + "]);");
+                continue;
+            }
+            String has = nd.array ? "c" + i + " > 0" : "h" + i;
+            line(2, "if (" + has + ") {");
+            if (nd.nullable) line(3, "out.writeLong(1);");
+            if (nd.array) {
+                line(3, "out.writeLong(c" + i + ");");
+                line(3, "out.write(s[" + i + "]);");
+                line(3, "out.writeLong(0);");
+            } else if (nd.kind == Kind.RECORD) {
+                line(3, "out.write(s[" + i + "]);");
+            } else if (nd.kind != Kind.NULL) {
+                line(3, write(nd.kind, "out", "v" + i) + ";");
+            }
+            line(2, "} else {");
+            line(3, nd.nullable || nd.array ? "out.writeLong(0);" : "throw missing(r, " + field + ");");
+            line(2, "}");
+        }
+    }
+
+    private void enumMethod(Node nd, String name) {
+        src.append("\n    private static int ").append(name).append("(CharSequence raw, XMLStreamReader r, String field) {\n");
+        src.append("        String v = raw.toString().strip();\n");
+        src.append("        for (int pass = 0; pass < 2; pass++, v = norm(v)) {\n");
+        src.append("            switch (v) {\n");
+        Map<String, Integer> first = new LinkedHashMap<>(nd.symbols);
+        for (Map.Entry<String, Integer> e : first.entrySet()) {
+            src.append("                case ").append(lit(e.getKey())).append(": return ").append(e.getValue()).append(";\n");
+        }
+        src.append("                default: break;\n");
+        src.append("            }\n");
+        src.append("        }\n");
+        src.append("        throw invalid(\"enum\", raw, r, field, new IllegalArgumentException(\"not an enumeration value\"));\n");
+        src.append("    }\n");
+    }
+
+    private String enumName(Node nd) {
+        return enums.computeIfAbsent(nd, k -> "e" + enums.size());
+    }
+
+    private static String write(Kind kind, String buf, String v) {
+        return switch (kind) {
+            case INT, LONG, ENUM, DATE, TIME_MILLIS, TIMESTAMP_MILLIS, TIMESTAMP_MICROS -> buf + ".writeLong(" + v + ")";
+            case FLOAT -> buf + ".writeFloat(" + v + ")";
+            case DOUBLE -> buf + ".writeDouble(" + v + ")";
+            case BOOLEAN -> buf + ".write(" + v + " ? 1 : 0)";
+            case BYTES, DECIMAL -> "writeBytes(" + buf + ", " + v + ")";
+            case FIXED -> "writeFixed(" + buf + ", " + v + ")";
+            case STRING -> buf + ".writeString(" + v + ")";
+            case NULL, RECORD, CHOICE -> throw new IllegalStateException(kind + " has no value");
+        };
+    }
+
+    private static String local(Node nd) {
+        return switch (nd.kind) {
+            case INT, ENUM, DATE, TIME_MILLIS -> "int";
+            case LONG, TIMESTAMP_MILLIS, TIMESTAMP_MICROS -> "long";
+            case FLOAT -> "float";
+            case DOUBLE -> "double";
+            case BOOLEAN -> "boolean";
+            case BYTES, DECIMAL, FIXED -> "byte[]";
+            case STRING -> "String";
+            case NULL, RECORD, CHOICE -> null;
+        };
+    }
+
+    private static String zero(String type) {
+        return switch (type) {
+            case "boolean" -> "false";
+            case "byte[]", "String" -> "null";
+            default -> "0";
+        };
+    }
+
+    private static boolean opaque(Plan p, int i) {
+        return p.fields[i].source == Field.Source.OPAQUE;
+    }
+
+    private static boolean usesSlots(Plan p) {
+        for (Node nd : p.nodes) if (nd.array || nd.kind == Kind.RECORD) return true;
+        return false;
+    }
+
+    private static boolean usesTexts(Plan p) {
+        for (int i = 0; i < p.fields.length; i++) {
+            if (opaque(p, i) || p.fields[i].source == Field.Source.TEXT) return true;
+        }
+        return false;
+    }
+
+    private void line(int ind, String s) {
+        src.append("    ".repeat(ind)).append(s).append('\n');
+    }
+
+    private static String lit(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    // ---- compilation ----
+
+    private static byte[] javac(String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) throw new IllegalStateException("no Java compiler available (running on a JRE?)");
+        Map<String, ByteArrayOutputStream> classes = new LinkedHashMap<>();
+        DiagnosticCollector<JavaFileObject> diags = new DiagnosticCollector<>();
+        StandardJavaFileManager std = javac.getStandardFileManager(diags, null, StandardCharsets.UTF_8);
+        JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///com/ahold/tools/xsd2avro/" + CLASS + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) { return source; }
+        };
+        ForwardingJavaFileManager<StandardJavaFileManager> fm = new ForwardingJavaFileManager<>(std) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classes.computeIfAbsent(className, k -> new ByteArrayOutputStream());
+                    }
+                };
+            }
+        };
+        List<String> opts = List.of("-classpath", classPath(), "-proc:none", "-g:source,lines", "-Xlint:none");
+        boolean ok = javac.getTask(null, fm, diags, opts, null, List.of(unit)).call();
+        if (!ok) {
+            StringBuilder sb = new StringBuilder("generated decoder does not compile");
+            for (Diagnostic<? extends JavaFileObject> d : diags.getDiagnostics()) {
+                if (d.getKind() == Diagnostic.Kind.ERROR) { sb.append(": ").append(d.getMessage(null)); break; }
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+        ByteArrayOutputStream b = classes.get("com.ahold.tools.xsd2avro." + CLASS);
+        if (b == null || classes.size() != 1) throw new IllegalStateException("unexpected classes from generated decoder: " + classes.keySet());
+        return b.toByteArray();
+    }
+
+    // The application class path plus wherever this class was loaded from (shaded jar, IDE output dir)
+    private static String classPath() {
+        Set<String> cp = new LinkedHashSet<>();
+        try {
+            cp.add(new File(DecoderCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+        } catch (Exception ignore) {}
+        String sys = System.getProperty("java.class.path");
+        if (sys != null && !sys.isEmpty()) cp.add(sys);
+        return String.join(File.pathSeparator, cp);
+    }
+}
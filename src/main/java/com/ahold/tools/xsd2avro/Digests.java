@@ -0,0 +1,40 @@
+package com.ahold.tools.xsd2avro;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/** Content hashes used as cache and manifest keys. */
+final class Digests {
+    private static final long CRC64_EMPTY = 0xc15d213aa4d7a795L;
+    private static final long[] CRC64_TABLE = new long[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            long fp = i;
+            for (int j = 0; j < 8; j++) fp = (fp >>> 1) ^ (CRC64_EMPTY & -(fp & 1L));
+            CRC64_TABLE[i] = fp;
+        }
+    }
+
+    private Digests() {}
+
+    /** CRC-64-AVRO, the Avro spec's 64-bit Rabin fingerprint (of a schema's parsing canonical form). */
+    static long crc64Avro(byte[] content) {
+        long fp = CRC64_EMPTY;
+        for (byte b : content) fp = (fp >>> 8) ^ CRC64_TABLE[(int) (fp ^ b) & 0xff];
+        return fp;
+    }
+
+    static String sha256Hex(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String sha256Hex(String text) {
+        return sha256Hex(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
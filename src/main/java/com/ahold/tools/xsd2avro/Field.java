@@ -0,0 +1,35 @@
+package com.ahold.tools.xsd2avro;
+
+/** Record field of the intermediate model built by {@link XmlSchemaJsonGen}. Immutable; names are interned. */
+final class Field {
+    /** Where an XML instance holds the field's value; CHOICE: the elements of one of the union's branch records. */
+    enum Source { ELEMENT, ATTRIBUTE, TEXT, OPAQUE, CHOICE }
+
+    final String name;
+    final Type type;
+    final Source source;
+    final String xmlName; // local name of the element/attribute (ELEMENT, ATTRIBUTE)
+    final String via;     // --flatten-top: local name of the top-level element the field was lifted out of
+
+    Field(String n, Type t) { this(n, t, Source.OPAQUE, null, null); }
+
+    private Field(String name, Type type, Source source, String xmlName, String via) {
+        this.name = name.intern(); this.type = type; this.source = source;
+        this.xmlName = xmlName == null ? null : xmlName.intern(); this.via = via;
+    }
+
+    static Field element(String name, Type t) { return new Field(name, t, Source.ELEMENT, name, null); }
+    static Field attribute(String name, Type t) { return new Field(name, t, Source.ATTRIBUTE, name, null); }
+    static Field text(String name, Type t) { return new Field(name, t, Source.TEXT, null, null); }
+    static Field choice(Type t) { return new Field("choice", t, Source.CHOICE, null, null); }
+
+    /** Same XML source under a new name and/or type (renames, coercions, flattening); this when unchanged. */
+    Field with(String n, Type t) {
+        return n.equals(name) && t == type ? this : new Field(n, t, source, xmlName, via);
+    }
+
+    /** --flatten-top: lifted out of the top-level element {@code top}. */
+    Field lifted(String n, String top) {
+        return new Field(n, type, source, xmlName, top);
+    }
+}
@@ -7,16 +7,42 @@ public class OptionsCli {
     public File in;
     public File outDir;
     public String rootName;
+    public String allRoots;    // glob on global element names, one schema each; null = one root
     public String namespace;
     public boolean pretty;
     public boolean logicalTypes;
+    public String timestampPrecision = "millis"; // --logical-types: millis|micros for xs:dateTime
     public boolean nullableAttrs;
+    public String choice = "union"; // xs:choice as union | flat | string
+    public boolean narrow;     // narrowest Avro type the facets allow (int, fixed, inherited enums)
     public boolean showHelp;
     public String glob = "*.xsd";
     public String outNaming = "file+root"; // root|file|file+root
     public String avroName;
     public boolean flattenTop;
     public String forceString; // comma list (case-insensitive)
+    public String includePath; // comma list of element paths from the root; the rest of the schema is cut off
+    public int threads = 1;    // directory-mode workers
+    public String sharedTypes; // directory mode: base name of the .avsc with the named types several schemas share
+    public boolean incremental;
+    public boolean watch;
+    public boolean serve;
+    public int port = 8080;
+    public int maxConcurrent = Runtime.getRuntime().availableProcessors();
+    public int cacheSize = 256;
+    public boolean stats;      // per-file phase timing/allocation table
+    public File statsJson;     // same, as JSON
+    public File xml;           // XML instances (file or dir) to convert to Avro container files
+    public String recordPath;  // --xml: element path whose occurrences are the records, e.g. Orders/Order
+    public String codec = "deflate"; // null|deflate[:level]
+    public int blockSize = 256 * 1024; // uncompressed bytes per container block
+    public int blockRecords;   // max datums per block; 0 = size only
+    public boolean compiledDecoder; // --xml: decode with a class generated for the schema
+    public File genXml;        // synthetic XML instances of the --in XSD are written here
+    public long genRecords;    // 0 = 1, or as many as --gen-size allows
+    public long genSize;       // stop after this many bytes; 0 = no limit
+    public long genSeed = 1;
+    public String genSpec;     // key=value,... see XmlInstanceGenerator.Spec
 
     public static OptionsCli parse(String[] args) throws ParseException {
         CommandLine cmd = new DefaultParser().parse(options(), args);
@@ -25,18 +51,91 @@ public class OptionsCli {
         if (cmd.hasOption("in"))  c.in  = new File(cmd.getOptionValue("in"));
         if (cmd.hasOption("out")) c.outDir = new File(cmd.getOptionValue("out"));
         c.rootName      = cmd.getOptionValue("root-name");
+        if (cmd.hasOption("all-roots")) c.allRoots = cmd.getOptionValue("all-roots", "*");
         c.namespace     = cmd.getOptionValue("namespace");
         c.pretty        = cmd.hasOption("pretty");
         c.logicalTypes  = cmd.hasOption("logical-types");
+        if (cmd.hasOption("timestamp-precision")) c.timestampPrecision = cmd.getOptionValue("timestamp-precision").trim().toLowerCase();
+        if (!c.timestampPrecision.matches("millis|micros")) throw new ParseException("--timestamp-precision must be millis or micros");
         c.nullableAttrs = cmd.hasOption("nullable-attrs");
+        c.narrow        = cmd.hasOption("narrow");
+        if (cmd.hasOption("choice")) c.choice = cmd.getOptionValue("choice").trim().toLowerCase();
+        if (!c.choice.matches("union|flat|string")) throw new ParseException("--choice must be union, flat or string");
         if (cmd.hasOption("glob"))       c.glob = cmd.getOptionValue("glob");
         if (cmd.hasOption("out-naming")) c.outNaming = cmd.getOptionValue("out-naming");
         c.avroName      = cmd.getOptionValue("avro-name");
         c.flattenTop    = cmd.hasOption("flatten-top");
         c.forceString   = cmd.getOptionValue("force-string");
+        c.includePath   = cmd.getOptionValue("include-path");
+        if (c.includePath != null && c.includePath.replaceAll("[,/\\s]", "").isEmpty()) throw new ParseException("--include-path needs element paths, e.g. Payload/Header,Payload/Lines/Line");
+        c.sharedTypes   = cmd.getOptionValue("shared-types");
+        if (c.sharedTypes != null && !c.sharedTypes.matches("[\\w.-]+")) throw new ParseException("--shared-types must be a file base name, e.g. common");
+        c.incremental   = cmd.hasOption("incremental");
+        c.watch         = cmd.hasOption("watch");
+        c.serve         = cmd.hasOption("serve");
+        c.port          = positiveInt(cmd, "port", c.port);
+        c.maxConcurrent = positiveInt(cmd, "max-concurrent", c.maxConcurrent);
+        c.cacheSize     = positiveInt(cmd, "cache-size", c.cacheSize);
+        c.threads       = positiveInt(cmd, "threads", c.threads);
+        c.stats         = cmd.hasOption("stats");
+        if (cmd.hasOption("xml")) c.xml = new File(cmd.getOptionValue("xml"));
+        c.recordPath    = cmd.getOptionValue("record-path");
+        if (cmd.hasOption("codec")) c.codec = cmd.getOptionValue("codec").trim().toLowerCase();
+        if (!c.codec.matches("null|deflate(:[1-9])?")) throw new ParseException("--codec must be null or deflate[:1-9]");
+        c.blockSize     = positiveInt(cmd, "block-size", c.blockSize);
+        c.blockRecords  = positiveInt(cmd, "block-records", 0);
+        c.compiledDecoder = cmd.hasOption("compiled-decoder");
+        if (cmd.hasOption("gen-xml")) c.genXml = new File(cmd.getOptionValue("gen-xml"));
+        c.genRecords    = positiveInt(cmd, "gen-records", 0);
+        if (cmd.hasOption("gen-size")) c.genSize = size(cmd.getOptionValue("gen-size"));
+        if (cmd.hasOption("gen-seed")) {
+            try { c.genSeed = Long.parseLong(cmd.getOptionValue("gen-seed").trim()); }
+            catch (NumberFormatException e) { throw new ParseException("--gen-seed must be an integer"); }
+        }
+        c.genSpec       = cmd.getOptionValue("gen-spec");
+        try { XmlInstanceGenerator.Spec.parse(c.genSpec); }
+        catch (IllegalArgumentException e) { throw new ParseException(e.getMessage()); }
+        if (cmd.hasOption("stats-json")) c.statsJson = new File(cmd.getOptionValue("stats-json"));
+        if (c.allRoots != null) {
+            if (c.rootName != null || c.avroName != null || c.includePath != null || c.xml != null) {
+                throw new ParseException("--all-roots cannot be combined with --root-name, --avro-name, --include-path or --xml");
+            }
+            if ("file".equals(c.outNaming)) throw new ParseException("--all-roots writes one schema per root; use --out-naming root or file+root");
+        }
         return c;
     }
 
+    private static int positiveInt(CommandLine cmd, String opt, int dflt) throws ParseException {
+        if (!cmd.hasOption(opt)) return dflt;
+        int v;
+        try { v = Integer.parseInt(cmd.getOptionValue(opt).trim()); }
+        catch (NumberFormatException e) { v = 0; }
+        if (v < 1) throw new ParseException("--" + opt + " must be a positive integer");
+        return v;
+    }
+
+    // 500000, 64K, 200M, 10G
+    private static long size(String v) throws ParseException {
+        String s = v.trim().toUpperCase();
+        int shift = s.endsWith("K") ? 10 : s.endsWith("M") ? 20 : s.endsWith("G") ? 30 : 0;
+        if (shift > 0) s = s.substring(0, s.length() - 1);
+        try {
+            long n = Long.parseLong(s);
+            if (n > 0) return n << shift;
+        } catch (NumberFormatException ignore) {}
+        throw new ParseException("--gen-size must be a positive size like 500000, 64K, 200M or 10G");
+    }
+
+    /** Hash of every setting that influences generated output (used by --incremental). */
+    public String outputFingerprint() {
+        return Digests.sha256Hex(String.join("\u0000",
+                String.valueOf(rootName), String.valueOf(namespace), String.valueOf(pretty),
+                String.valueOf(logicalTypes), String.valueOf(nullableAttrs), String.valueOf(outNaming),
+                String.valueOf(avroName), String.valueOf(flattenTop), String.valueOf(forceString),
+                String.valueOf(timestampPrecision), String.valueOf(narrow), String.valueOf(choice),
+                String.valueOf(sharedTypes), String.valueOf(includePath), String.valueOf(allRoots)));
+    }
+
     public static void printHelp() {
         HelpFormatter hf = new HelpFormatter();
         hf.setWidth(120);
@@ -49,15 +148,41 @@ public class OptionsCli {
         opts.addOption(Option.builder().longOpt("in").hasArg().argName("file-or-dir").desc("Input XSD file or directory").build());
         opts.addOption(Option.builder().longOpt("out").hasArg().argName("dir").desc("Output directory for .avsc").build());
         opts.addOption(Option.builder().longOpt("root-name").hasArg().argName("name").desc("Root global element name").build());
+        opts.addOption(Option.builder().longOpt("all-roots").hasArg().optionalArg(true).argName("pattern").desc("One schema per global element (optionally only names matching a glob, e.g. '*Event'), parsed and indexed once").build());
         opts.addOption(Option.builder().longOpt("namespace").hasArg().argName("ns").desc("Avro namespace; default derives from targetNamespace").build());
         opts.addOption(Option.builder().longOpt("pretty").desc("Pretty-print JSON").build());
-        opts.addOption(Option.builder().longOpt("logical-types").desc("Reserved flag").build());
+        opts.addOption(Option.builder().longOpt("logical-types").desc("Avro logical types for xs:date, xs:time, xs:dateTime and xs:decimal with totalDigits").build());
+        opts.addOption(Option.builder().longOpt("timestamp-precision").hasArg().argName("unit").desc("--logical-types: xs:dateTime as timestamp-millis or timestamp-micros (default: millis)").build());
+        opts.addOption(Option.builder().longOpt("choice").hasArg().argName("mode").desc("xs:choice as: union of one record per alternative (default) | flat: nullable fields per alternative | string: one 'choice' string with the XML").build());
+        opts.addOption(Option.builder().longOpt("narrow").desc("Narrowest Avro type the XSD facets allow: int for small integer ranges, fixed for constant-length binary, enums inherited through named simple types").build());
         opts.addOption(Option.builder().longOpt("nullable-attrs").desc("Attributes nullable unless required").build());
         opts.addOption(Option.builder().longOpt("glob").hasArg().argName("pattern").desc("Glob in --in directory (default: *.xsd)").build());
         opts.addOption(Option.builder().longOpt("out-naming").hasArg().argName("mode").desc("Output name: root | file | file+root (default)").build());
         opts.addOption(Option.builder().longOpt("avro-name").hasArg().argName("name").desc("Override Avro record name").build());
         opts.addOption(Option.builder().longOpt("flatten-top").desc("Flatten one level of top-level child records into root").build());
-        opts.addOption(Option.builder().longOpt("force-string").hasArg().argName("fields").desc("Comma-separated field names to coerce to string (case-insensitive)").build());
+        opts.addOption(Option.builder().longOpt("force-string").hasArg().argName("fields").desc("Comma-separated field names to coerce to string (case-insensitive); optional fields stay nullable").build());
+        opts.addOption(Option.builder().longOpt("include-path").hasArg().argName("paths").desc("Comma-separated element paths from the root to keep, e.g. Payload/Header,Payload/Lines/Line; everything else is left out").build());
+        opts.addOption(Option.builder().longOpt("threads").hasArg().argName("n").desc("Worker threads for directory mode (default: 1)").build());
+        opts.addOption(Option.builder().longOpt("shared-types").hasArg().argName("name").desc("Directory mode: write named types that several schemas define identically once, to <out>/<name>.avsc, and refer to them").build());
+        opts.addOption(Option.builder().longOpt("incremental").desc("Only regenerate outputs whose XSDs (incl. imports) or options changed").build());
+        opts.addOption(Option.builder().longOpt("watch").desc("Keep running and regenerate outputs when their XSDs change").build());
+        opts.addOption(Option.builder().longOpt("serve").desc("Run a local HTTP conversion service (--in is the root for path requests)").build());
+        opts.addOption(Option.builder().longOpt("port").hasArg().argName("port").desc("Port for --serve (default: 8080)").build());
+        opts.addOption(Option.builder().longOpt("max-concurrent").hasArg().argName("n").desc("Conversions running at once in --serve (default: CPU count)").build());
+        opts.addOption(Option.builder().longOpt("cache-size").hasArg().argName("n").desc("Converted schemas kept by --serve (default: 256)").build());
+        opts.addOption(Option.builder().longOpt("xml").hasArg().argName("file-or-dir").desc("Convert these XML instances of the --in XSD to Avro container files").build());
+        opts.addOption(Option.builder().longOpt("record-path").hasArg().argName("path").desc("--xml: records are the elements at this path from the root, e.g. Orders/Order; large files are split and converted in parallel").build());
+        opts.addOption(Option.builder().longOpt("codec").hasArg().argName("codec").desc("Container codec for --xml: null | deflate[:1-9] (default: deflate)").build());
+        opts.addOption(Option.builder().longOpt("block-size").hasArg().argName("bytes").desc("Uncompressed bytes per container block (default: 262144)").build());
+        opts.addOption(Option.builder().longOpt("block-records").hasArg().argName("n").desc("Records per container block at most (default: no limit)").build());
+        opts.addOption(Option.builder().longOpt("compiled-decoder").desc("--xml: decode with a Java class generated and compiled for the schema (needs a JDK; falls back to the interpreter)").build());
+        opts.addOption(Option.builder().longOpt("gen-xml").hasArg().argName("file").desc("Write synthetic XML instances of the --in XSD to this file (no --out needed)").build());
+        opts.addOption(Option.builder().longOpt("gen-records").hasArg().argName("n").desc("Root elements to generate (default: 1, or unlimited with --gen-size)").build());
+        opts.addOption(Option.builder().longOpt("gen-size").hasArg().argName("bytes").desc("Stop generating after this much XML, e.g. 200M or 10G").build());
+        opts.addOption(Option.builder().longOpt("gen-seed").hasArg().argName("n").desc("Random seed; the same seed gives the same output (default: 1)").build());
+        opts.addOption(Option.builder().longOpt("gen-spec").hasArg().argName("spec").desc("Data shape: optional=0.7,repeat=1-4,repeat-dist=uniform|geometric,depth=8,string=4-12,nil=0").build());
+        opts.addOption(Option.builder().longOpt("stats").desc("Print per-file phase times, allocation, cache hits and bytes written").build());
+        opts.addOption(Option.builder().longOpt("stats-json").hasArg().argName("file").desc("Also write those statistics as JSON").build());
         opts.addOption(Option.builder().longOpt("help").desc("Show help").build());
         return opts;
     }
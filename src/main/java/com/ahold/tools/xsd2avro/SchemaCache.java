@@ -0,0 +1,392 @@
+package com.ahold.tools.xsd2avro;
+
+import org.apache.ws.commons.schema.XmlSchema;
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.resolver.URIResolver;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Batch-scoped cache of parsed schema documents.
+ *
+ * Roots are read into shared {@link XmlSchemaCollection}s, so a header or type library that many
+ * messages import is read, parsed and compiled once. A collection resolves references by QName
+ * across all documents it holds, so a root only joins a collection whose documents define none
+ * of its global names differently (two messages in one namespace, two versions of a library);
+ * otherwise it starts a new one. The global names of each document are read with a light StAX
+ * pass for this, before anything is compiled. Documents come from an in-memory catalog that
+ * imports and includes are resolved from offline (local files, or what an {@link XsdResolver}
+ * supplies, are loaded into it on first use). Roots are keyed by resolved URI plus content hash.
+ * Safe to share between worker threads; roots of different collections compile in parallel.
+ */
+public class SchemaCache {
+    private final Map<String, byte[]> catalog = new ConcurrentHashMap<>();
+    private final Map<String, Long> stamps = new ConcurrentHashMap<>(); // file uri -> mtime when read
+    private final Map<String, XmlSchema> parsed = new HashMap<>(); // uri#sha256 -> schema
+    private final Map<String, Outline> outlines = new ConcurrentHashMap<>();
+    private final List<Lane> lanes = new ArrayList<>();
+    private final XsdResolver resolver; // may be null
+    private long generation; // bumped whenever parsed and lanes are dropped
+
+    public SchemaCache() {
+        this(null);
+    }
+
+    /** Documents the resolver knows are taken from it, before local files. */
+    public SchemaCache(XsdResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Pre-seed the catalog, e.g. with documents that do not live on disk. Changed content drops
+     * the compiled roots and collections, which may hold the old document; conversions already
+     * running keep the schemas they loaded.
+     */
+    public synchronized void register(String uri, byte[] content) {
+        byte[] prev = catalog.put(uri, content);
+        if (prev != null && !Arrays.equals(prev, content)) newGeneration();
+    }
+
+    public XmlSchema load(File xsd) throws Exception {
+        return load(xsd, new ConversionStats(xsd.getName()));
+    }
+
+    XmlSchema load(File xsd, ConversionStats stats) throws Exception {
+        return load(xsd.toURI().toString(), stats);
+    }
+
+    /** Root document by absolute URI: from the catalog, the resolver or a local file. */
+    XmlSchema load(String uri, ConversionStats stats) throws Exception {
+        byte[] content = bytes(uri);
+        String key = uri + "#" + Digests.sha256Hex(content);
+        long gen;
+        synchronized (this) {
+            XmlSchema hit = parsed.get(key);
+            if (hit != null) { stats.schemaCacheHits++; return hit; }
+            gen = generation;
+        }
+
+        Document doc;
+        ConversionStats.Span parsing = stats.phase(ConversionStats.Phase.PARSE);
+        try {
+            doc = parse(content);
+        } finally {
+            parsing.close();
+        }
+        ConversionStats.Span compiling = stats.phase(ConversionStats.Phase.COMPILE);
+        try {
+            return compile(uri, key, gen, doc, stats);
+        } finally {
+            compiling.close();
+        }
+    }
+
+    // When two threads compile the same root the first one is kept; a root compiled across a
+    // newGeneration() may have read old includes and is not kept at all
+    private XmlSchema compile(String uri, String key, long gen, Document doc, ConversionStats stats) {
+        Map<String, Outline> docs = reach(uri);
+        Lane lane = null;
+        synchronized (this) {
+            if (gen == generation && docs != null) {
+                for (Lane l : lanes) {
+                    int shared = l.shared(docs);
+                    if (l.claim(docs)) { lane = l; stats.schemaCacheHits += shared; break; }
+                }
+                if (lane == null && (lane = new Lane()).claim(docs)) lanes.add(lane);
+            }
+        }
+        if (lane == null) lane = new Lane(); // compiled on its own, not shared
+        XmlSchema s;
+        try {
+            synchronized (lane) {
+                s = lane.read(doc, uri);
+            }
+        } catch (RuntimeException | Error e) {
+            synchronized (this) { lanes.remove(lane); } // may hold part of the failed root
+            throw e;
+        }
+        synchronized (this) {
+            if (gen != generation) return s;
+            XmlSchema first = parsed.putIfAbsent(key, s);
+            if (first != null) { stats.schemaCacheHits++; return first; }
+        }
+        return s;
+    }
+
+    // The documents the root reaches, "uri ns" -> outline (a chameleon include is compiled once
+    // per namespace it is included into, root first); null when one cannot be outlined, the
+    // compile then reports the problem
+    private Map<String, Outline> reach(String rootUri) {
+        Map<String, Outline> docs = new LinkedHashMap<>();
+        Deque<String[]> todo = new ArrayDeque<>(); // uri, namespace an include was pulled into
+        todo.push(new String[] { rootUri, null });
+        try {
+            while (!todo.isEmpty()) {
+                String[] next = todo.pop();
+                Outline o = outline(next[0]);
+                String ns = o.targetNamespace() != null ? o.targetNamespace() : next[1] != null ? next[1] : "";
+                if (docs.putIfAbsent(next[0] + " " + ns, o) != null) continue;
+                for (Outline.Ref r : o.refs()) todo.push(new String[] { r.uri(), r.include() ? ns : null });
+            }
+        } catch (RuntimeException | XMLStreamException e) {
+            return null;
+        }
+        return docs;
+    }
+
+    private Outline outline(String uri) throws XMLStreamException {
+        byte[] content = bytes(uri);
+        Outline o = outlines.get(uri);
+        if (o != null && o.content() == content) return o;
+        o = Outline.read(uri, content);
+        outlines.put(uri, o);
+        return o;
+    }
+
+    /** SHA-256 of the catalog bytes a document was (or would be) parsed from. */
+    public String contentHash(String uri) {
+        return Digests.sha256Hex(bytes(uri));
+    }
+
+    /** Invalidates every local document whose modification time changed since it was read. */
+    public void refreshStale() {
+        refreshStale(stamps.keySet());
+    }
+
+    /** Like {@link #refreshStale()}, for the given documents only; others are not looked at. */
+    public void refreshStale(Collection<String> uris) {
+        List<String> stale = new ArrayList<>();
+        for (String uri : uris) {
+            Long then = stamps.get(uri);
+            if (then != null && !then.equals(mtime(Path.of(URI.create(uri))))) stale.add(uri);
+        }
+        if (!stale.isEmpty()) invalidate(stale);
+    }
+
+    /**
+     * Drops the given documents so they are read again on next use. Only when the content of a
+     * document actually changed are the compiled roots and collections dropped; roots loaded
+     * earlier keep their schema objects either way.
+     */
+    public synchronized void invalidate(Collection<String> uris) {
+        boolean dirty = false;
+        for (String uri : uris) {
+            byte[] prev = catalog.remove(uri);
+            stamps.remove(uri);
+            if (prev == null) continue;
+            try {
+                if (Arrays.equals(prev, bytes(uri))) continue;
+            } catch (RuntimeException gone) {
+                // deleted or unreadable: leave it out of the catalog
+            }
+            dirty = true;
+        }
+        if (dirty) newGeneration();
+    }
+
+    // Any compiled root may include/import a changed document
+    private void newGeneration() {
+        generation++;
+        parsed.clear();
+        lanes.clear();
+        outlines.clear();
+    }
+
+    private byte[] bytes(String uri) {
+        return catalog.computeIfAbsent(uri, u -> {
+            if (resolver != null) {
+                try {
+                    byte[] content = resolver.resolve(u);
+                    if (content != null) return content;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot resolve schema " + u, e);
+                }
+            }
+            URI parsedUri = URI.create(u);
+            if (!"file".equalsIgnoreCase(parsedUri.getScheme())) {
+                throw new IllegalArgumentException("Schema not in offline catalog: " + u);
+            }
+            try {
+                Path p = Path.of(parsedUri);
+                Long stamp = mtime(p);
+                byte[] content = Files.readAllBytes(p);
+                if (stamp != null) stamps.put(u, stamp);
+                return content;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read schema " + u, e);
+            }
+        });
+    }
+
+    private static Long mtime(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Document parse(byte[] content) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        DocumentBuilder db = dbf.newDocumentBuilder();
+        return db.parse(new ByteArrayInputStream(content));
+    }
+
+    /** A collection shared by roots whose global definitions agree. Guarded by its own lock. */
+    private final class Lane {
+        final XmlSchemaCollection coll = new XmlSchemaCollection();
+        final Map<String, String> defs = new HashMap<>(); // "{ns}kind:name" -> "uri ns" defining it; guarded by SchemaCache.this
+        final Set<String> docs = new HashSet<>();         // "uri ns" read (or claimed) here; guarded by SchemaCache.this
+
+        Lane() {
+            coll.setSchemaResolver(new CatalogResolver());
+        }
+
+        // The root's documents other than itself that are here already
+        int shared(Map<String, Outline> rootDocs) {
+            int n = 0;
+            boolean root = true;
+            for (String d : rootDocs.keySet()) {
+                if (!root && docs.contains(d)) n++;
+                root = false;
+            }
+            return n;
+        }
+
+        // Takes the root when its documents that are not here yet define no name that is defined
+        // here, or by another of them. Documents that are here were checked when they came.
+        boolean claim(Map<String, Outline> rootDocs) {
+            Map<String, String> added = new HashMap<>();
+            for (Map.Entry<String, Outline> e : rootDocs.entrySet()) {
+                String d = e.getKey();
+                if (docs.contains(d)) continue;
+                String ns = d.substring(d.indexOf(' ') + 1); // URIs have no spaces
+                for (String name : e.getValue().names()) {
+                    String key = "{" + ns + "}" + name;
+                    String by = defs.get(key);
+                    if (by == null) by = added.putIfAbsent(key, d);
+                    if (by != null && !by.equals(d)) return false;
+                }
+            }
+            defs.putAll(added);
+            docs.addAll(rootDocs.keySet());
+            return true;
+        }
+
+        // A root an earlier root already imported (not as a chameleon include) is not read twice
+        XmlSchema read(Document doc, String uri) {
+            for (XmlSchema known : coll.getXmlSchema(uri)) {
+                if (known != null && sameNamespace(known.getLogicalTargetNamespace(), known.getTargetNamespace())) return known;
+            }
+            return coll.read(doc, uri);
+        }
+    }
+
+    /** The global definitions and schema references of one document, read without building it. */
+    private record Outline(byte[] content, String targetNamespace, List<String> names, List<Ref> refs) {
+        /** include: included, redefined or overridden, so a document without a namespace takes the includer's. */
+        record Ref(String uri, boolean include) {}
+
+        static Outline read(String uri, byte[] content) throws XMLStreamException {
+            List<String> names = new ArrayList<>();
+            List<Ref> refs = new ArrayList<>();
+            XMLStreamReader r = inputFactory().createXMLStreamReader(new ByteArrayInputStream(content)); // once per document
+            try {
+                while (r.next() != XMLStreamConstants.START_ELEMENT) { } // xs:schema
+                String tns = r.getAttributeValue(null, "targetNamespace");
+                children(r, uri, names, refs, false);
+                return new Outline(content, tns == null || tns.isEmpty() ? null : tns, names, refs);
+            } finally {
+                r.close();
+            }
+        }
+
+        // The children of the current element, through its end; those of a redefine/override
+        // redefine names of the included document
+        private static void children(XMLStreamReader r, String uri, List<String> names, List<Ref> refs,
+                                     boolean redefined) throws XMLStreamException {
+            for (int ev = r.next(); ev != XMLStreamConstants.END_ELEMENT; ev = r.next()) {
+                if (ev != XMLStreamConstants.START_ELEMENT) continue;
+                if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(r.getNamespaceURI())) { skip(r); continue; }
+                String local = r.getLocalName();
+                String kind = switch (local) {
+                    case "complexType", "simpleType" -> "type";
+                    case "element", "group", "attributeGroup", "attribute", "notation" -> local;
+                    default -> null;
+                };
+                String name = r.getAttributeValue(null, "name");
+                if (kind != null && name != null) names.add(kind + ":" + name);
+                boolean inc = local.equals("include") || local.equals("redefine") || local.equals("override");
+                String loc = r.getAttributeValue(null, "schemaLocation");
+                if (!redefined && loc != null && (inc || local.equals("import"))) refs.add(new Ref(resolve(uri, loc), inc));
+                if (!redefined && (local.equals("redefine") || local.equals("override"))) children(r, uri, names, refs, true);
+                else skip(r);
+            }
+        }
+
+        // Past the end of the current element
+        private static void skip(XMLStreamReader r) throws XMLStreamException {
+            for (int open = 1; open > 0; ) {
+                int ev = r.next();
+                if (ev == XMLStreamConstants.START_ELEMENT) open++;
+                else if (ev == XMLStreamConstants.END_ELEMENT) open--;
+            }
+        }
+
+        private static XMLInputFactory inputFactory() {
+            XMLInputFactory xif = XMLInputFactory.newFactory();
+            xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return xif;
+        }
+    }
+
+    private static boolean sameNamespace(String a, String b) {
+        return (a == null || a.isEmpty()) ? (b == null || b.isEmpty()) : a.equals(b);
+    }
+
+    // Same resolution as the collection's, so both see one document under one URI
+    private static String resolve(String baseUri, String schemaLocation) {
+        URI loc = URI.create(schemaLocation.trim().replace(" ", "%20"));
+        return (baseUri == null || loc.isAbsolute() ? loc : URI.create(baseUri).resolve(loc)).normalize().toString();
+    }
+
+    private final class CatalogResolver implements URIResolver {
+        @Override
+        public InputSource resolveEntity(String namespace, String schemaLocation, String baseUri) {
+            String uri = resolve(baseUri, schemaLocation);
+            InputSource src = new InputSource(new ByteArrayInputStream(bytes(uri)));
+            src.setSystemId(uri);
+            return src;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sidecar written next to the schemas of a directory batch: per {@code .avsc} the full name of
+ * its record, the CRC-64-AVRO fingerprint (16 hex digits) and the Parsing Canonical Form. One
+ * tab-separated line per schema, so a registry check is a lookup of the fingerprint. Entries of
+ * schemas that were not regenerated this run ({@code --incremental}, {@code --watch}) are kept
+ * as long as their {@code .avsc} exists.
+ */
+final class SchemaFingerprints {
+    static final String FILE_NAME = "fingerprints.tsv";
+    private static final String HEADER = "# xsd2avro schema fingerprints v1: avsc, full name, CRC-64-AVRO, parsing canonical form";
+
+    record Entry(String fullName, String fingerprint, String canonical) {}
+
+    private final Path file;
+    private final Map<String, Entry> entries = new TreeMap<>(); // avsc file name -> entry
+
+    private SchemaFingerprints(Path file) { this.file = file; }
+
+    static SchemaFingerprints load(File outDir) throws IOException {
+        SchemaFingerprints f = new SchemaFingerprints(outDir.toPath().resolve(FILE_NAME));
+        if (!Files.isRegularFile(f.file)) return f;
+        for (String line : Files.readAllLines(f.file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] p = line.split("\t");
+            if (p.length == 4) f.entries.put(p[0], new Entry(p[1], p[2], p[3]));
+        }
+        return f;
+    }
+
+    void put(String avsc, String fullName, String canonical) {
+        long fp = Digests.crc64Avro(canonical.getBytes(StandardCharsets.UTF_8));
+        entries.put(avsc, new Entry(fullName, HexFormat.of().toHexDigits(fp), canonical));
+    }
+
+    void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(HEADER); w.write('\n');
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (!Files.isRegularFile(file.resolveSibling(e.getKey()))) continue;
+                Entry v = e.getValue();
+                w.write(String.join("\t", List.of(e.getKey(), v.fullName(), v.fingerprint(), v.canonical())));
+                w.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,82 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@code --shared-types}: named types that several schemas of a directory batch define the same
+ * way are written once, as a union of their definitions, and the message schemas refer to them
+ * by full name. A type is shared when at least two schemas have it, every schema with a type of
+ * that full name defines it identically, it is nobody's root record and all types it refers to
+ * are shared too. Consumers parse the shared schema first, with the same {@code Schema.Parser}.
+ */
+final class SharedTypes {
+    /** One schema's definition of a named type; {@code names} are that schema's type names. */
+    private record Def(String typeNs, Type type, Map<Type, String> names, String json, Set<String> refs) {}
+
+    private final Map<XmlSchemaJsonGen.Result, Map<Type, String>> names = new IdentityHashMap<>();
+    private final Map<String, Def> shared; // by full name
+    private final Map<String, Set<String>> external = new HashMap<>(); // type namespace -> shared names
+
+    SharedTypes(List<XmlSchemaJsonGen.Result> results) {
+        Map<String, Def> defs = new TreeMap<>();
+        Map<String, Integer> schemas = new HashMap<>();
+        Set<String> excluded = new HashSet<>();
+        for (XmlSchemaJsonGen.Result res : results) {
+            excluded.add(res.fullName());
+            Map<Type, String> n = res.typeNames();
+            names.put(res, n);
+            for (Map.Entry<Type, String> e : n.entrySet()) {
+                String full = res.typeNamespace() + "." + e.getValue();
+                Set<String> refs = new HashSet<>();
+                String json = AvroSchemaWriter.definition(e.getKey(), res.typeNamespace(), n, refs);
+                Def prev = defs.putIfAbsent(full, new Def(res.typeNamespace(), e.getKey(), n, json, refs));
+                if (prev != null && !prev.json().equals(json)) excluded.add(full);
+                schemas.merge(full, 1, Integer::sum); // names are unique within a schema
+            }
+        }
+        defs.keySet().removeIf(full -> excluded.contains(full) || schemas.get(full) < 2);
+        // A shared type may only refer to shared types
+        while (defs.values().removeIf(d -> !defs.keySet().containsAll(d.refs()))) { }
+        this.shared = defs;
+        for (Def d : defs.values()) external.computeIfAbsent(d.typeNs(), k -> new HashSet<>()).add(d.names().get(d.type()));
+    }
+
+    int size() { return shared.size(); }
+
+    /** The shared types as one schema: a JSON array of named types, grouped by namespace. */
+    void writeLibrary(Writer out, boolean pretty) throws IOException {
+        Map<String, List<Def>> byNs = new LinkedHashMap<>();
+        for (Def d : shared.values()) byNs.computeIfAbsent(d.typeNs(), k -> new ArrayList<>()).add(d);
+        String nl = pretty ? "\n" : "";
+        out.write("["); out.write(nl);
+        boolean first = true;
+        for (Map.Entry<String, List<Def>> e : byNs.entrySet()) {
+            Map<Type, String> known = new IdentityHashMap<>();
+            for (Def d : e.getValue()) known.putAll(d.names());
+            AvroSchemaWriter w = new AvroSchemaWriter(out, pretty, e.getKey(), known, Set.of());
+            for (Def d : e.getValue()) {
+                if (w.written(d.type())) continue; // nested in an earlier definition
+                if (!first) { out.write(","); out.write(nl); }
+                w.writeDefinition(d.type());
+                first = false;
+            }
+        }
+        out.write(nl); out.write("]");
+        out.flush();
+    }
+
+    /** A message schema of the batch, referring to the shared types. */
+    void writeTo(XmlSchemaJsonGen.Result res, Writer out, boolean pretty) throws IOException {
+        res.writeTo(out, pretty, names.get(res), external.getOrDefault(res.typeNamespace(), Set.of()));
+    }
+}
@@ -0,0 +1,111 @@
+package com.ahold.tools.xsd2avro;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Avro type node of the intermediate model built by {@link XmlSchemaJsonGen}. Immutable: a
+ * record's fields are defined once, after its content was walked (recursive types refer to the
+ * record before that). Primitives are flyweights shared by every schema of the JVM, and a type's
+ * nullable and array wrappers are created once per type, so the model of a large schema is mostly
+ * records and fields.
+ */
+final class Type {
+    enum Kind {
+        STRING, INT, LONG, FLOAT, DOUBLE, BOOLEAN, BYTES, FIXED, RECORD, ARRAY, ENUM, UNION;
+
+        /** The Avro type name. */
+        final String avro = name().toLowerCase();
+    }
+
+    // Keys are built-ins, logical types and decimal precisions, so this stays small
+    private static final Map<String, Type> PRIMITIVES = new ConcurrentHashMap<>();
+
+    final Kind kind;
+    final String logical;   // optional logical type name
+    final int precision, scale; // for logical "decimal"
+    final int size;         // for fixed
+    final String name;      // for record/enum/fixed
+    private List<Field> fields; // for record, see define()
+    final List<String> symbols; // for enum
+    final Type items;       // for array, and the non-null type of a nullable union
+    final List<Type> branches; // union of xs:choice alternatives (records); with nullable, "null" comes first
+    final boolean nullable;
+    final String xsd;       // XSD built-in the value is read from (lexical form), for primitives
+    private Type orNull, arrayOf; // wrappers, created on first use (a racy but idempotent cache)
+
+    private Type(Kind kind, String logical, int precision, int scale, int size, String name, List<String> symbols,
+                 Type items, List<Type> branches, boolean nullable, String xsd) {
+        this.kind = kind; this.logical = logical; this.precision = precision; this.scale = scale; this.size = size;
+        this.name = name == null ? null : name.intern();
+        this.symbols = symbols == null ? null : List.copyOf(symbols);
+        this.items = items; this.branches = branches == null ? null : List.copyOf(branches);
+        this.nullable = nullable; this.xsd = xsd;
+    }
+
+    /** The shared instance of a primitive (string, int, long, float, double, boolean, bytes), optionally logical. */
+    static Type primitive(Kind kind, String logical, String xsd) {
+        return PRIMITIVES.computeIfAbsent(kind.avro + "/" + logical + "/" + xsd,
+                k -> new Type(kind, logical, 0, 0, 0, null, null, null, null, false, xsd));
+    }
+
+    static Type decimal(int precision, int scale) {
+        return PRIMITIVES.computeIfAbsent("decimal/" + precision + "/" + scale,
+                k -> new Type(Kind.BYTES, "decimal", precision, scale, 0, null, null, null, null, false, "decimal"));
+    }
+
+    static Type fixed(String name, int size, String xsd) {
+        return new Type(Kind.FIXED, null, 0, 0, size, name, null, null, null, false, xsd);
+    }
+
+    static Type enumOf(String name, List<String> symbols) {
+        return new Type(Kind.ENUM, null, 0, 0, 0, name, symbols, null, null, false, null);
+    }
+
+    /** A record whose fields are given later, with {@link #define}. */
+    static Type record(String name) {
+        return new Type(Kind.RECORD, null, 0, 0, 0, name, null, null, null, false, null);
+    }
+
+    static Type record(String name, List<Field> fields) {
+        Type t = record(name);
+        t.define(fields);
+        return t;
+    }
+
+    /** Union of the alternatives of a choice, "null" first when nullable. */
+    static Type union(List<Type> branches, boolean nullable) {
+        return new Type(Kind.UNION, null, 0, 0, 0, null, null, null, branches, nullable, null);
+    }
+
+    /** Sets a record's fields, once. */
+    void define(List<Field> fields) {
+        if (kind != Kind.RECORD || this.fields != null) throw new IllegalStateException("record " + name + " is already defined");
+        this.fields = List.copyOf(fields);
+    }
+
+    /** A record's fields; empty until defined. */
+    List<Field> fields() {
+        return fields != null ? fields : List.of();
+    }
+
+    /** Nullable union of this type. */
+    Type orNull() {
+        Type t = orNull;
+        if (t == null) orNull = t = new Type(Kind.UNION, null, 0, 0, 0, null, null, this, null, true, null);
+        return t;
+    }
+
+    /** Array of this type. */
+    Type arrayOf() {
+        Type t = arrayOf;
+        if (t == null) arrayOf = t = new Type(Kind.ARRAY, null, 0, 0, 0, null, null, this, null, false, null);
+        return t;
+    }
+
+    /** The non-null type of a nullable union, else this. */
+    Type nonNull() {
+        return kind == Kind.UNION && items != null ? items : this;
+    }
+}
@@ -0,0 +1,712 @@
+package com.ahold.tools.xsd2avro;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Streams XML instances of an XSD and encodes them as Avro binary datums of the schema
+ * {@link XmlSchemaJsonGen} generated for it. It works from the same model as the schema writer,
+ * so field names ({@code _1} suffixes, {@code --flatten-top} prefixes), nullability, arrays,
+ * {@code value} fields for simple content and {@code --force-string} always match the .avsc.
+ *
+ * Each occurrence of the root element is one datum. Values are encoded into per-field slot
+ * buffers as the elements arrive and written out in schema order when the element closes, so
+ * XML order does not matter and memory is bounded by the largest record, not the document.
+ * Unknown elements are skipped, or kept as markup when the record has a {@code choice}/{@code any}
+ * field. A missing required value or an unparsable number fails the datum.
+ *
+ * Not thread-safe; use one instance per thread ({@link #fork}).
+ */
+public final class XmlAvroEncoder {
+    static final String XSI = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+
+    private final XMLInputFactory xif;
+    private final String rootElement;
+    private final Plan rootPlan;
+    private final boolean rootIsRecord; // the root element's content is the record (Result.at)
+    private final Supplier<CompiledDecoder> decoders; // null: interpreted
+    private final CompiledDecoder decoder;
+    private final List<Frame> frames = new ArrayList<>();
+    private final AvroBuf datum = new AvroBuf();
+
+    public XmlAvroEncoder(XmlSchemaJsonGen.Result schema) {
+        this(schema, false);
+    }
+
+    /**
+     * @param compiled decode with a class generated for this schema ({@link DecoderCompiler})
+     *                 instead of interpreting the model
+     * @throws IllegalStateException if {@code compiled} and the decoder cannot be compiled
+     *                               (e.g. no compiler on a JRE)
+     */
+    public XmlAvroEncoder(XmlSchemaJsonGen.Result schema, boolean compiled) {
+        this.rootElement = schema.rootElement();
+        this.rootIsRecord = schema.self() != null;
+        Type root = schema.self() != null ? schema.self() : Type.record(null, schema.fields());
+        this.rootPlan = new Planner().plan(root);
+        this.decoders = compiled ? DecoderCompiler.compile(rootPlan, rootIsRecord) : null;
+        this.decoder = decoders != null ? decoders.get() : null;
+        this.xif = inputFactory();
+    }
+
+    private XmlAvroEncoder(XmlAvroEncoder proto) {
+        this.rootElement = proto.rootElement;
+        this.rootIsRecord = proto.rootIsRecord;
+        this.rootPlan = proto.rootPlan;
+        this.decoders = proto.decoders;
+        this.decoder = decoders != null ? decoders.get() : null;
+        this.xif = inputFactory();
+    }
+
+    /** Another encoder for the same schema, sharing the plan and generated decoder; for another thread. */
+    public XmlAvroEncoder fork() {
+        return new XmlAvroEncoder(this);
+    }
+
+    /** Whether datums are decoded by a generated class. */
+    public boolean compiled() {
+        return decoder != null;
+    }
+
+    private static XMLInputFactory inputFactory() {
+        XMLInputFactory xif = XMLInputFactory.newFactory();
+        xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return xif;
+    }
+
+    /** Receives encoded datums, one call per datum; the buffer is reused after the call returns. */
+    @FunctionalInterface
+    public interface DatumSink {
+        void datum(byte[] buf, int off, int len) throws IOException;
+    }
+
+    /** Encodes every root element of the document, in document order; returns the number of datums. */
+    public long encodeAll(InputStream xml, OutputStream out) throws IOException, XMLStreamException {
+        return encodeAll(xml, out::write);
+    }
+
+    public long encodeAll(InputStream xml, DatumSink sink) throws IOException, XMLStreamException {
+        XMLStreamReader r = xif.createXMLStreamReader(xml);
+        try {
+            long n = 0;
+            while (r.hasNext()) {
+                if (r.next() == XMLStreamConstants.START_ELEMENT && rootElement.equals(r.getLocalName())) {
+                    datum.reset();
+                    encode(r, datum);
+                    sink.datum(datum.bytes, 0, datum.len);
+                    n++;
+                }
+            }
+            return n;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Encodes the root elements that are children of the document element, e.g. the records of an
+     * {@link XmlRecordSplitter} chunk; other children are skipped with all they hold.
+     */
+    long encodeChildren(InputStream xml, DatumSink sink) throws IOException, XMLStreamException {
+        XMLStreamReader r = xif.createXMLStreamReader(xml);
+        try {
+            long n = 0;
+            for (int depth = 0; r.hasNext(); ) {
+                int ev = r.next();
+                if (ev == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 1 && rootElement.equals(r.getLocalName())) {
+                        datum.reset();
+                        encode(r, datum); // through its END_ELEMENT
+                        sink.datum(datum.bytes, 0, datum.len);
+                        n++;
+                    } else {
+                        depth++;
+                    }
+                } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            return n;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * Encodes one datum. {@code r} must be on the START_ELEMENT of a root element and is left on
+     * its END_ELEMENT.
+     */
+    public void encode(XMLStreamReader r, OutputStream out) throws IOException, XMLStreamException {
+        datum.reset();
+        encode(r, datum);
+        out.write(datum.bytes, 0, datum.len);
+    }
+
+    void encode(XMLStreamReader r, AvroBuf out) throws XMLStreamException {
+        if (decoder != null) {
+            decoder.decode(r, out);
+            return;
+        }
+        Frame f = frame(0, rootPlan);
+        if (rootIsRecord) fill(r, f, rootPlan.lookup, 0);
+        else child(r, f, rootPlan.lookup, 0);
+        f.finish(out, r);
+    }
+
+    // ---- reading ----
+
+    private void fill(XMLStreamReader r, Frame f, Lookup lk, int depth) throws XMLStreamException {
+        for (int i = 0, n = r.getAttributeCount(); i < n; i++) {
+            Integer idx = lk.attributes.get(r.getAttributeLocalName(i));
+            if (idx != null && !f.filled[idx]) f.scalar(idx, r.getAttributeValue(i), r);
+        }
+        StringBuilder text = lk.text >= 0 ? f.text(lk.text) : null;
+        while (true) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) {
+                child(r, f, lk, depth);
+            } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (text != null && (ev == XMLStreamConstants.CHARACTERS || ev == XMLStreamConstants.CDATA
+                    || ev == XMLStreamConstants.SPACE)) {
+                text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+            }
+        }
+        if (text != null) {
+            Node n = f.plan.nodes[lk.text];
+            if (n.kind == Kind.STRING || !text.toString().isBlank()) f.scalar(lk.text, text.toString(), r);
+        }
+    }
+
+    // r is on a START_ELEMENT inside the element f/lk reads; consumes it
+    private void child(XMLStreamReader r, Frame f, Lookup lk, int depth) throws XMLStreamException {
+        String name = r.getLocalName();
+        int idx = f.slotFor(lk.elements.get(name));
+        if (idx < 0) {
+            int[] choices = lk.choices.get(name);
+            if (choices != null && choice(r, f, choices, depth)) return;
+            Lookup via = lk.via.get(name);
+            if (via != null) fill(r, f, via, depth);
+            else if (lk.opaque >= 0) markup(r, f.text(lk.opaque));
+            else skip(r);
+            return;
+        }
+        if ("true".equals(r.getAttributeValue(XSI, "nil")) || "1".equals(r.getAttributeValue(XSI, "nil"))) {
+            skip(r); // stays unset: null for nullable fields
+            return;
+        }
+        Node n = f.plan.nodes[idx];
+        if (n.kind == Kind.RECORD) {
+            Frame c = frame(depth + 1, n.record);
+            fill(r, c, n.record.lookup, depth + 1);
+            c.finish(f.slot(idx), r);
+            f.done(idx);
+        } else {
+            f.scalar(idx, text(r), r);
+        }
+    }
+
+    // An element of a choice branch (slot/branch pairs): continues the open branch record when it
+    // fits there, else starts the next occurrence of the choice; false if no choice can take it
+    private boolean choice(XMLStreamReader r, Frame f, int[] pairs, int depth) throws XMLStreamException {
+        String name = r.getLocalName();
+        for (int k = 0; k < pairs.length; k += 2) {
+            int i = pairs[k], b = pairs[k + 1];
+            Node n = f.plan.nodes[i];
+            Lookup blk = n.branches[b].lookup;
+            if (f.open[i] >= 0) {
+                Frame open = f.branch[i];
+                if (f.open[i] == b && (open.slotFor(blk.elements.get(name)) >= 0 || blk.choices.containsKey(name))) {
+                    child(r, open, blk, depth);
+                    return true;
+                }
+                if (!n.array) continue;
+                f.closeChoice(i, r);
+            } else if (!n.array && f.filled[i]) {
+                continue;
+            }
+            child(r, f.openChoice(i, b), blk, depth);
+            return true;
+        }
+        return false;
+    }
+
+    // Character data of the element and its descendants; leaves r on the element's END_ELEMENT
+    static String text(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = null;
+        String first = null;
+        for (int depth = 1; depth > 0; ) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
+            else if (ev == XMLStreamConstants.CHARACTERS || ev == XMLStreamConstants.CDATA || ev == XMLStreamConstants.SPACE) {
+                if (first == null) first = r.getText();
+                else {
+                    if (sb == null) sb = new StringBuilder(first);
+                    sb.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                }
+            }
+        }
+        return sb != null ? sb.toString() : first != null ? first : "";
+    }
+
+    static void skip(XMLStreamReader r) throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    // Re-serializes an element the schema has no field for (choice/any placeholders)
+    static void markup(XMLStreamReader r, StringBuilder sb) throws XMLStreamException {
+        int depth = 0;
+        do {
+            switch (r.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    depth++;
+                    sb.append('<').append(r.getLocalName());
+                    for (int i = 0; i < r.getAttributeCount(); i++) {
+                        sb.append(' ').append(r.getAttributeLocalName(i)).append("=\"");
+                        escape(sb, r.getAttributeValue(i), true);
+                        sb.append('"');
+                    }
+                    sb.append('>');
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    depth--;
+                    sb.append("</").append(r.getLocalName()).append('>');
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+                        escape(sb, r.getText(), false);
+                default -> { }
+            }
+        } while (depth > 0 && r.next() > 0);
+    }
+
+    private static void escape(StringBuilder sb, String s, boolean attr) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<' -> sb.append("&lt;");
+                case '&' -> sb.append("&amp;");
+                case '>' -> sb.append("&gt;");
+                case '"' -> sb.append(attr ? "&quot;" : "\"");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    private Frame frame(int depth, Plan plan) {
+        while (frames.size() <= depth) frames.add(new Frame());
+        Frame f = frames.get(depth);
+        f.reset(plan);
+        return f;
+    }
+
+    // ---- compiled schema ----
+
+    enum Kind {
+        NULL, BOOLEAN, INT, LONG, FLOAT, DOUBLE, STRING, BYTES, ENUM, RECORD,
+        DATE, TIME_MILLIS, TIMESTAMP_MILLIS, TIMESTAMP_MICROS, DECIMAL, // --logical-types
+        FIXED, // --narrow
+        CHOICE; // union of xs:choice branch records
+
+        /** Name in error messages: the Avro type or logical type. */
+        String label() { return name().toLowerCase().replace('_', '-'); }
+    }
+
+    /** Field type with the nullable union and array wrappers folded into flags. */
+    static final class Node {
+        Kind kind;
+        boolean nullable;
+        boolean array;
+        boolean hex;                 // hexBinary rather than base64Binary
+        int precision, scale;        // DECIMAL
+        int size;                    // FIXED
+        Map<String, Integer> symbols; // enum symbol -> index
+        Plan record;
+        Plan[] branches;             // CHOICE
+        int base;                    // CHOICE: union index of the first branch (1 when "null" shares the union)
+
+        /** Whether a present value is written after a "not null" branch index of its own. */
+        boolean nullPrefix() { return nullable && base == 0; }
+    }
+
+    /** Where attributes, child elements and text of one element go. */
+    static final class Lookup {
+        final Map<String, Integer> attributes = new HashMap<>();
+        final Map<String, int[]> elements = new HashMap<>();
+        final Map<String, Lookup> via = new HashMap<>();
+        final Map<String, int[]> choices = new HashMap<>(); // element -> (CHOICE slot, branch) pairs
+        int text = -1;
+        int opaque = -1;
+    }
+
+    static final class Plan {
+        Field[] fields;
+        Node[] nodes;
+        final Lookup lookup = new Lookup();
+    }
+
+    /**
+     * Builds the plans of a root type and of every record type it reaches. A work stack stands in
+     * for the recursion, so the depth of the schema is not bounded by the thread's stack.
+     */
+    private static final class Planner {
+        private final Map<Type, Plan> plans = new IdentityHashMap<>();
+        // Records being planned, top first: a record waits on the plans of its current field's types
+        private final Deque<Pending> todo = new ArrayDeque<>();
+
+        private static final class Pending {
+            final Plan plan; int next;       // field being planned
+            Node node; List<Type> needs; int need; // its node and the record types it refers to
+            Pending(Plan plan) { this.plan = plan; }
+        }
+
+        Plan plan(Type rec) {
+            Plan root = start(rec);
+            while (!todo.isEmpty()) {
+                Pending w = todo.peek();
+                Plan p = w.plan;
+                if (w.node == null) {
+                    if (w.next == p.fields.length) { todo.pop(); continue; }
+                    w.needs = new ArrayList<>();
+                    w.node = node(p.fields[w.next].type, w.needs);
+                    w.need = 0;
+                }
+                if (w.need < w.needs.size()) {
+                    Type t = w.needs.get(w.need);
+                    Plan q = plans.get(t);
+                    if (q == null) { start(t); continue; } // plan it first; recursive types get the plan in progress
+                    if (w.node.kind == Kind.RECORD) w.node.record = q;
+                    else w.node.branches[w.need] = q;
+                    w.need++;
+                    continue;
+                }
+                p.nodes[w.next] = w.node;
+                index(p, w.next);
+                w.node = null;
+                w.next++;
+            }
+            return root;
+        }
+
+        private Plan start(Type rec) {
+            Plan p = plans.get(rec);
+            if (p != null) return p;
+            p = new Plan();
+            plans.put(rec, p); // before the fields: recursive types refer back to it
+            p.fields = rec.fields().toArray(new Field[0]);
+            p.nodes = new Node[p.fields.length];
+            todo.push(new Pending(p));
+            return p;
+        }
+
+        // Where the XML of field i goes; the plans its node refers to are built
+        private static void index(Plan p, int i) {
+            Field f = p.fields[i];
+            Lookup lk = p.lookup;
+            if (f.via != null) lk = lk.via.computeIfAbsent(f.via, k -> new Lookup());
+            switch (f.source) {
+                case ELEMENT -> lk.elements.merge(f.xmlName, new int[] { i }, XmlAvroEncoder::concat);
+                case ATTRIBUTE -> lk.attributes.putIfAbsent(f.xmlName, i);
+                case TEXT -> { if (lk.text < 0) lk.text = i; }
+                case OPAQUE -> { if (lk.opaque < 0) lk.opaque = i; }
+                case CHOICE -> {
+                    Node n = p.nodes[i];
+                    for (int b = 0; n.branches != null && b < n.branches.length; b++) {
+                        Lookup blk = n.branches[b].lookup;
+                        Set<String> names = new LinkedHashSet<>(blk.elements.keySet());
+                        names.addAll(blk.choices.keySet());
+                        for (String name : names) lk.choices.merge(name, new int[] { i, b }, XmlAvroEncoder::concat);
+                    }
+                }
+            }
+        }
+
+        // The node of a field type; the record types it refers to are added to needs, in branch order
+        private static Node node(Type t, List<Type> needs) {
+            Node n = new Node();
+            if (t != null && t.kind == Type.Kind.UNION && t.branches == null) { n.nullable = true; t = t.items; }
+            if (t != null && t.kind == Type.Kind.ARRAY) { n.array = true; t = t.items; }
+            if (t != null && t.kind == Type.Kind.UNION && t.branches == null) t = t.items;
+            switch (t == null ? Type.Kind.STRING : t.kind) {
+                case UNION -> {
+                    n.kind = Kind.CHOICE;
+                    if (t.nullable) { n.nullable = true; n.base = 1; }
+                    n.branches = new Plan[t.branches.size()];
+                    needs.addAll(t.branches);
+                }
+                case RECORD -> { n.kind = Kind.RECORD; needs.add(t); }
+                case ENUM -> {
+                    n.kind = Kind.ENUM;
+                    n.symbols = new HashMap<>();
+                    for (int i = 0; i < t.symbols.size(); i++) n.symbols.putIfAbsent(t.symbols.get(i), i);
+                }
+                case BOOLEAN -> n.kind = Kind.BOOLEAN;
+                case INT -> n.kind = "date".equals(t.logical) ? Kind.DATE
+                        : "time-millis".equals(t.logical) ? Kind.TIME_MILLIS : Kind.INT;
+                case LONG -> n.kind = "timestamp-millis".equals(t.logical) ? Kind.TIMESTAMP_MILLIS
+                        : "timestamp-micros".equals(t.logical) ? Kind.TIMESTAMP_MICROS : Kind.LONG;
+                case FLOAT -> n.kind = Kind.FLOAT;
+                case DOUBLE -> n.kind = Kind.DOUBLE;
+                case BYTES -> {
+                    if ("decimal".equals(t.logical)) { n.kind = Kind.DECIMAL; n.precision = t.precision; n.scale = t.scale; }
+                    else { n.kind = Kind.BYTES; n.hex = "hexBinary".equals(t.xsd); }
+                }
+                case FIXED -> { n.kind = Kind.FIXED; n.size = t.size; n.hex = "hexBinary".equals(t.xsd); }
+                default -> n.kind = Kind.STRING;
+            }
+            return n;
+        }
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    // ---- encoding ----
+
+    /** One record being read: a slot buffer per field, written out in field order on finish. */
+    private static final class Frame {
+        Plan plan;
+        AvroBuf[] slots = new AvroBuf[0];
+        boolean[] filled = new boolean[0];
+        int[] counts = new int[0];
+        StringBuilder[] texts = new StringBuilder[0];
+        int[] open = new int[0];       // CHOICE slots: branch of the occurrence being read, or -1
+        Frame[] branch = new Frame[0]; // CHOICE slots: its record
+
+        void reset(Plan p) {
+            plan = p;
+            int n = p.nodes.length;
+            if (slots.length < n) {
+                int old = slots.length;
+                slots = Arrays.copyOf(slots, n);
+                for (int i = old; i < n; i++) slots[i] = new AvroBuf();
+                filled = new boolean[n];
+                counts = new int[n];
+                texts = Arrays.copyOf(texts, n);
+                open = new int[n];
+                branch = Arrays.copyOf(branch, n);
+            }
+            for (int i = 0; i < n; i++) {
+                open[i] = -1;
+                slots[i].reset();
+                filled[i] = false;
+                counts[i] = 0;
+                if (texts[i] != null) texts[i].setLength(0);
+            }
+        }
+
+        // First candidate that can still take a value: arrays always, others once
+        int slotFor(int[] candidates) {
+            if (candidates == null) return -1;
+            for (int i : candidates) if (plan.nodes[i].array || !filled[i]) return i;
+            return -1;
+        }
+
+        AvroBuf slot(int i) { return slots[i]; }
+
+        void done(int i) { filled[i] = true; counts[i]++; }
+
+        StringBuilder text(int i) {
+            if (texts[i] == null) texts[i] = new StringBuilder();
+            return texts[i];
+        }
+
+        void scalar(int i, String value, XMLStreamReader r) {
+            Node n = plan.nodes[i];
+            try {
+                encodeScalar(n, value, slots[i]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(at(r) + "invalid " + n.kind.label()
+                        + " '" + value + "' for field '" + plan.fields[i].name + "'", e);
+            }
+            done(i);
+        }
+
+        Frame openChoice(int i, int b) {
+            if (branch[i] == null) branch[i] = new Frame();
+            branch[i].reset(plan.nodes[i].branches[b]);
+            open[i] = b;
+            return branch[i];
+        }
+
+        void closeChoice(int i, XMLStreamReader r) {
+            slots[i].writeLong(open[i] + plan.nodes[i].base);
+            branch[i].finish(slots[i], r);
+            open[i] = -1;
+            done(i);
+        }
+
+        void finish(AvroBuf out, XMLStreamReader r) {
+            Node[] nodes = plan.nodes;
+            for (int i = 0; i < nodes.length; i++) if (open[i] >= 0) closeChoice(i, r);
+            for (int i = 0; i < nodes.length; i++) {
+                Node n = nodes[i];
+                if (plan.fields[i].source == Field.Source.OPAQUE) {
+                    out.writeString(texts[i] != null ? texts[i] : "");
+                    continue;
+                }
+                if (!filled[i]) {
+                    if (n.nullable || n.array) out.writeLong(0); // null branch / empty array
+                    else throw new IllegalArgumentException(at(r) + "missing required value for field '" + plan.fields[i].name + "'");
+                    continue;
+                }
+                if (n.nullPrefix()) out.writeLong(1);
+                if (n.array) {
+                    out.writeLong(counts[i]);
+                    out.write(slots[i]);
+                    out.writeLong(0);
+                } else {
+                    out.write(slots[i]);
+                }
+            }
+        }
+    }
+
+    static String at(XMLStreamReader r) {
+        return r.getLocation() != null && r.getLocation().getLineNumber() > 0
+                ? "Line " + r.getLocation().getLineNumber() + ": " : "";
+    }
+
+    static void encodeScalar(Node n, String value, AvroBuf out) {
+        switch (n.kind) {
+            case STRING -> out.writeString(value);
+            case INT -> out.writeLong(Integer.parseInt(value.strip()));
+            case LONG -> out.writeLong(Long.parseLong(value.strip()));
+            case FLOAT -> out.writeFloat(Float.parseFloat(xsdFloat(value.strip())));
+            case DOUBLE -> out.writeDouble(Double.parseDouble(xsdFloat(value.strip())));
+            case BOOLEAN -> {
+                String v = value.strip();
+                if (v.equals("true") || v.equals("1")) out.write(1);
+                else if (v.equals("false") || v.equals("0")) out.write(0);
+                else throw new IllegalArgumentException("not a boolean");
+            }
+            case BYTES -> {
+                String v = value.strip();
+                byte[] b = n.hex ? HexFormat.of().parseHex(v) : Base64.getMimeDecoder().decode(v);
+                out.writeLong(b.length);
+                out.write(b, 0, b.length);
+            }
+            case ENUM -> {
+                String v = value.strip();
+                Integer idx = n.symbols.get(v);
+                if (idx == null) {
+                    // Same normalization as the symbols in the schema
+                    String sym = v.toUpperCase().replaceAll("[^A-Z0-9_]", "_");
+                    idx = n.symbols.get(sym.isEmpty() ? "_" : sym);
+                }
+                if (idx == null) throw new IllegalArgumentException("not an enumeration value");
+                out.writeLong(idx);
+            }
+            case DATE -> out.writeLong(xsdDate(value.strip()));
+            case TIME_MILLIS -> out.writeLong(xsdTime(value.strip()));
+            case TIMESTAMP_MILLIS -> out.writeLong(xsdDateTime(value.strip(), false));
+            case TIMESTAMP_MICROS -> out.writeLong(xsdDateTime(value.strip(), true));
+            case DECIMAL -> {
+                byte[] b = xsdDecimal(value.strip(), n.precision, n.scale);
+                out.writeLong(b.length);
+                out.write(b, 0, b.length);
+            }
+            case FIXED -> {
+                byte[] b = xsdFixed(value.strip(), n.hex, n.size);
+                out.write(b, 0, b.length);
+            }
+            case NULL -> { }
+            case RECORD, CHOICE -> throw new IllegalStateException(n.kind.label() + " is not a scalar");
+        }
+    }
+
+    /** hexBinary/base64Binary of exactly {@code size} octets. */
+    static byte[] xsdFixed(String v, boolean hex, int size) {
+        byte[] b = hex ? HexFormat.of().parseHex(v) : Base64.getMimeDecoder().decode(v);
+        if (b.length != size) throw new IllegalArgumentException(b.length + " bytes, expected " + size);
+        return b;
+    }
+
+    // ---- logical types: XSD lexical forms; a value without a timezone is taken as UTC ----
+
+    /** xs:date as days since 1970-01-01; the timezone is dropped. */
+    static int xsdDate(String v) {
+        return Math.toIntExact(LocalDate.parse(v.substring(0, v.length() - zoneLength(v))).toEpochDay());
+    }
+
+    /** xs:time as milliseconds after midnight, local to its own timezone. */
+    static int xsdTime(String v) {
+        String t = v.substring(0, v.length() - zoneLength(v));
+        if (t.startsWith("24:00:00")) return 0;
+        return (int) (LocalTime.parse(t).toNanoOfDay() / 1_000_000);
+    }
+
+    /** xs:dateTime as milliseconds or microseconds since the epoch, UTC. */
+    static long xsdDateTime(String v, boolean micros) {
+        int z = zoneLength(v);
+        String local = v.substring(0, v.length() - z);
+        ZoneOffset offset = z == 0 || v.charAt(v.length() - z) == 'Z' ? ZoneOffset.UTC : ZoneOffset.of(v.substring(v.length() - z));
+        LocalDateTime t;
+        int tt = local.indexOf('T');
+        if (tt > 0 && local.startsWith("24:00:00", tt + 1)) {
+            t = LocalDate.parse(local.substring(0, tt)).plusDays(1).atStartOfDay();
+        } else {
+            t = LocalDateTime.parse(local);
+        }
+        long seconds = t.toEpochSecond(offset);
+        return micros ? Math.addExact(Math.multiplyExact(seconds, 1_000_000L), t.getNano() / 1_000)
+                : Math.addExact(Math.multiplyExact(seconds, 1_000L), t.getNano() / 1_000_000);
+    }
+
+    // Length of a trailing Z or +hh:mm / -hh:mm
+    private static int zoneLength(String v) {
+        int n = v.length();
+        if (n > 0 && v.charAt(n - 1) == 'Z') return 1;
+        if (n >= 6 && (v.charAt(n - 6) == '+' || v.charAt(n - 6) == '-') && v.charAt(n - 3) == ':') return 6;
+        return 0;
+    }
+
+    /** xs:decimal as the two's-complement unscaled value at {@code scale}; more digits are an error. */
+    static byte[] xsdDecimal(String v, int precision, int scale) {
+        BigDecimal d = new BigDecimal(v.startsWith("+") ? v.substring(1) : v).setScale(scale, RoundingMode.UNNECESSARY);
+        if (d.precision() > precision) throw new ArithmeticException("more than " + precision + " digits");
+        return d.unscaledValue().toByteArray();
+    }
+
+    static String xsdFloat(String v) {
+        return switch (v) {
+            case "INF", "+INF" -> "Infinity";
+            case "-INF" -> "-Infinity";
+            default -> v;
+        };
+    }
+}
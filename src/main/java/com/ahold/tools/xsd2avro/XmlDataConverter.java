@@ -0,0 +1,209 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * {@code --xml}: converts XML instances of the {@code --in} XSD with {@link XmlAvroEncoder} into
+ * one Avro container file ({@code <xml-name>.avro}) per XML file; the .avsc is written next to
+ * them. XML files are parsed on {@code --threads} workers, container blocks are compressed on a
+ * pool with one thread per core.
+ *
+ * With {@code --record-path} the records are the elements at that path and each file is split
+ * by {@link XmlRecordSplitter}: files are done one after the other, the chunks of a file are
+ * parsed on the workers and appended in file order.
+ */
+final class XmlDataConverter {
+    private static final long CHUNK_BYTES = 4L << 20; // XML bytes per --record-path chunk
+    private XmlDataConverter() {}
+
+    static void run(OptionsCli cli) throws Exception {
+        if (cli.in.isDirectory()) throw new IllegalArgumentException("--xml needs --in to be a single XSD file");
+        List<File> files = listXml(cli.xml);
+        if (files.isEmpty()) throw new IllegalArgumentException("No *.xml files in " + cli.xml);
+
+        XmlSchemaJsonGen gen = new XmlSchemaJsonGen(cli);
+        XmlSchemaJsonGen.Result generated = gen.generate();
+        XmlSchemaJsonGen.Result res = cli.recordPath != null ? generated.at(cli.recordPath) : generated;
+        for (String w : gen.warnings()) System.err.println("⚠ " + w);
+        File avsc = new File(cli.outDir, XsdAvroConversionDemo.outName(cli,
+                XsdAvroConversionDemo.stripExt(cli.in.getName()), res.rootName) + ".avsc");
+        avsc.getParentFile().mkdirs();
+        try (Writer w = Files.newBufferedWriter(avsc.toPath(), StandardCharsets.UTF_8)) {
+            res.writeTo(w, cli.pretty);
+        }
+        System.out.println("Wrote: " + avsc.getAbsolutePath());
+
+        List<File> schedule = new ArrayList<>(files);
+        schedule.sort(Comparator.comparingLong(File::length).reversed());
+        String schemaJson = res.jsonCompact();
+        XmlAvroEncoder proto;
+        try {
+            proto = new XmlAvroEncoder(res, cli.compiledDecoder);
+        } catch (IllegalStateException e) {
+            System.err.println("⚠ Compiled decoder unavailable, using the interpreter: " + e.getMessage());
+            proto = new XmlAvroEncoder(res);
+        }
+        ThreadLocal<XmlAvroEncoder> encoders = ThreadLocal.withInitial(proto::fork);
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, cli.threads));
+        ExecutorService compressors = Executors.newFixedThreadPool(cores);
+        Map<File, Future<Long>> jobs = new HashMap<>();
+        try {
+            for (File xml : schedule) {
+                if (cli.recordPath == null) {
+                    jobs.put(xml, pool.submit(() -> convert(cli, encoders.get(), schemaJson, compressors, cores, xml)));
+                } else {
+                    FutureTask<Long> job = new FutureTask<>(() -> convertSplit(cli, encoders, schemaJson, pool, compressors, cores, xml));
+                    job.run(); // parallel inside the file
+                    jobs.put(xml, job);
+                }
+            }
+            int ok = 0, fail = 0;
+            long records = 0;
+            for (File xml : files) {
+                try {
+                    long n = jobs.get(xml).get();
+                    System.out.println("✔ " + xml.getName() + " -> " + target(cli, xml).getName() + " (" + n + " records)");
+                    records += n;
+                    ok++;
+                } catch (ExecutionException ee) {
+                    Throwable ex = ee.getCause() != null ? ee.getCause() : ee;
+                    System.err.println("✘ " + xml.getName() + " : " + ex.getMessage());
+                    fail++;
+                }
+            }
+            System.out.println("Done. Converted=" + ok + ", Failed=" + fail + ", Records=" + records);
+        } finally {
+            pool.shutdownNow();
+            compressors.shutdownNow();
+        }
+    }
+
+    private static long convert(OptionsCli cli, XmlAvroEncoder enc, String schemaJson, ExecutorService compressors,
+                                int poolSize, File xml) throws Exception {
+        File out = target(cli, xml);
+        Path tmp = out.toPath().resolveSibling(out.getName() + ".tmp");
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xml.toPath()), 1 << 16)) {
+            long n;
+            OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16);
+            try (AvroContainerWriter w = new AvroContainerWriter(os, schemaJson, cli.codec, cli.blockSize,
+                    cli.blockRecords, compressors, poolSize)) {
+                n = enc.encodeAll(in, w);
+            }
+            Files.move(tmp, out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return n;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** One chunk of records, encoded: datums back to back in {@code data}, their lengths in {@code lens}. */
+    private record Encoded(AvroBuf data, int[] lens, int count) {}
+
+    private static long convertSplit(OptionsCli cli, ThreadLocal<XmlAvroEncoder> encoders, String schemaJson,
+                                     ExecutorService pool, ExecutorService compressors, int poolSize, File xml) throws Exception {
+        File out = target(cli, xml);
+        Path tmp = out.toPath().resolveSibling(out.getName() + ".tmp");
+        XmlRecordSplitter splitter = new XmlRecordSplitter(cli.recordPath, CHUNK_BYTES);
+        int maxInFlight = 2 * Math.max(1, cli.threads);
+        Deque<Future<Encoded>> inFlight = new ArrayDeque<>();
+        try (FileChannel ch = FileChannel.open(xml.toPath(), StandardOpenOption.READ)) {
+            long n;
+            OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16);
+            try (AvroContainerWriter w = new AvroContainerWriter(os, schemaJson, cli.codec, cli.blockSize,
+                    cli.blockRecords, compressors, poolSize)) {
+                try {
+                    splitter.scan(ch, chunk -> {
+                        inFlight.addLast(pool.submit(() -> encodeChunk(encoders.get(), ch, chunk)));
+                        while (inFlight.size() > maxInFlight) append(inFlight.removeFirst(), w);
+                    });
+                    while (!inFlight.isEmpty()) append(inFlight.removeFirst(), w);
+                } finally {
+                    for (Future<Encoded> f : inFlight) f.cancel(true);
+                }
+                n = w.records();
+            }
+            // Only once close() flushed the last block and the stream
+            Files.move(tmp, out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return n;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Encoded encodeChunk(XmlAvroEncoder enc, FileChannel ch, XmlRecordSplitter.Chunk chunk) throws Exception {
+        AvroBuf data = new AvroBuf();
+        int[][] lens = { new int[Math.max(1, chunk.records())] };
+        int[] n = { 0 };
+        try (InputStream in = XmlRecordSplitter.open(ch, chunk)) {
+            enc.encodeChildren(in, (buf, off, len) -> {
+                data.write(buf, off, len);
+                if (n[0] == lens[0].length) lens[0] = Arrays.copyOf(lens[0], n[0] * 2);
+                lens[0][n[0]++] = len;
+            });
+        }
+        return new Encoded(data, lens[0], n[0]);
+    }
+
+    private static void append(Future<Encoded> f, AvroContainerWriter w) throws IOException {
+        Encoded e;
+        try {
+            e = f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException ee) {
+            Throwable c = ee.getCause();
+            if (c instanceof IOException io) throw io;
+            if (c instanceof RuntimeException re) throw re;
+            throw new IOException(c.getMessage(), c);
+        }
+        for (int i = 0, off = 0; i < e.count(); off += e.lens()[i++]) w.datum(e.data().bytes, off, e.lens()[i]);
+    }
+
+    private static File target(OptionsCli cli, File xml) {
+        String name = xml.getName();
+        int i = name.lastIndexOf('.');
+        return new File(cli.outDir, (i > 0 ? name.substring(0, i) : name) + ".avro");
+    }
+
+    private static List<File> listXml(File xml) throws Exception {
+        List<File> files = new ArrayList<>();
+        if (xml.isFile()) {
+            files.add(xml);
+        } else if (xml.isDirectory()) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(xml.toPath(), "*.xml")) {
+                for (Path p : ds) if (Files.isRegularFile(p)) files.add(p.toFile());
+            }
+        }
+        files.sort(Comparator.comparing(File::getName));
+        return files;
+    }
+}
@@ -0,0 +1,768 @@
+package com.ahold.tools.xsd2avro;
+
+import org.apache.ws.commons.schema.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * {@code --gen-xml}: writes synthetic XML instances of the {@code --in} XSD for load tests and
+ * benchmarks. It walks the XSD itself (through {@link XmlSchemaIndexer}), not the Avro model, so
+ * it sees what the schema allows: min/maxOccurs, sequence/choice/all, enumeration, length,
+ * digits, range and pattern facets, attribute use, fixed values and nillable elements.
+ *
+ * Output is streamed record by record; the same schema, seed and {@link Spec} always produce
+ * the same bytes. One record is written as a plain instance document; more are wrapped in a
+ * {@code <Batch>} element, which the {@code --xml} converter reads as a stream of records.
+ */
+public final class XmlInstanceGenerator {
+    private static final String XS = XMLConstants.W3C_XML_SCHEMA_NS_URI;
+    private static final String ALNUM = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final long EPOCH_FROM = LocalDateTime.of(2020, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    private static final long EPOCH_TO = LocalDateTime.of(2027, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+    private static final int RECURSION_SLACK = 32; // levels of required content allowed past Spec.depth
+
+    /**
+     * Shape of the generated data, from {@code --gen-spec key=value,...}.
+     *
+     * @param optional   probability that an optional element or attribute is present
+     * @param repeatMin  occurrences drawn for repeated elements, clamped to their min/maxOccurs
+     * @param geometric  repeat counts fall off geometrically from repeatMin rather than uniformly
+     * @param depth      nesting of complex elements beyond which only required content is written
+     * @param stringMin  length of generated strings, clamped to length facets
+     * @param nil        probability that an optional nillable element is written as xsi:nil
+     */
+    public record Spec(double optional, int repeatMin, int repeatMax, boolean geometric, int depth,
+                       int stringMin, int stringMax, double nil) {
+        public static final Spec DEFAULT = new Spec(0.7, 1, 4, false, 8, 4, 12, 0.0);
+
+        public static Spec parse(String s) {
+            Spec d = DEFAULT;
+            double optional = d.optional, nil = d.nil;
+            int[] repeat = { d.repeatMin, d.repeatMax }, string = { d.stringMin, d.stringMax };
+            int depth = d.depth;
+            boolean geometric = d.geometric;
+            if (s != null) {
+                for (String kv : s.split(",")) {
+                    if (kv.isBlank()) continue;
+                    int eq = kv.indexOf('=');
+                    if (eq < 0) throw new IllegalArgumentException("--gen-spec entry '" + kv.trim() + "' is not key=value");
+                    String k = kv.substring(0, eq).trim(), v = kv.substring(eq + 1).trim();
+                    switch (k) {
+                        case "optional" -> optional = probability(k, v);
+                        case "nil" -> nil = probability(k, v);
+                        case "repeat" -> repeat = range(k, v);
+                        case "string" -> string = range(k, v);
+                        case "depth" -> depth = range(k, v)[0];
+                        case "repeat-dist" -> {
+                            if (!v.equals("uniform") && !v.equals("geometric")) {
+                                throw new IllegalArgumentException("--gen-spec repeat-dist must be uniform or geometric");
+                            }
+                            geometric = v.equals("geometric");
+                        }
+                        default -> throw new IllegalArgumentException("Unknown --gen-spec key '" + k
+                                + "' (optional, repeat, repeat-dist, depth, string, nil)");
+                    }
+                }
+            }
+            return new Spec(optional, repeat[0], repeat[1], geometric, depth, string[0], string[1], nil);
+        }
+
+        private static double probability(String k, String v) {
+            try {
+                double p = Double.parseDouble(v);
+                if (p >= 0 && p <= 1) return p;
+            } catch (NumberFormatException ignore) {}
+            throw new IllegalArgumentException("--gen-spec " + k + " must be a probability between 0 and 1");
+        }
+
+        // n or lo-hi, non-negative
+        private static int[] range(String k, String v) {
+            try {
+                int dash = v.indexOf('-');
+                int lo = Integer.parseInt((dash < 0 ? v : v.substring(0, dash)).trim());
+                int hi = dash < 0 ? lo : Integer.parseInt(v.substring(dash + 1).trim());
+                if (lo >= 0 && hi >= lo) return new int[] { lo, hi };
+            } catch (NumberFormatException ignore) {}
+            throw new IllegalArgumentException("--gen-spec " + k + " must be n or lo-hi");
+        }
+    }
+
+    private final XmlSchemaIndexer idx;
+    private final Spec spec;
+    private final SplittableRandom rnd;
+    private final Map<String, String> prefixes = new LinkedHashMap<>(); // target namespace -> prefix
+    private final Set<String> badPatterns = new HashSet<>();
+    private final List<String> warnings = new ArrayList<>();
+    private XMLStreamWriter w;
+
+    public XmlInstanceGenerator(XmlSchemaIndexer idx, Spec spec, long seed) {
+        this.idx = idx;
+        this.spec = spec;
+        this.rnd = new SplittableRandom(seed);
+        for (String ns : idx.targetNamespaces()) prefixes.putIfAbsent(ns, "ns" + (prefixes.size() + 1));
+    }
+
+    /** Patterns the generator could not produce matches for (plain strings were written instead). */
+    public List<String> warnings() { return warnings; }
+
+    static void run(OptionsCli cli) throws Exception {
+        if (cli.in == null || !cli.in.isFile()) throw new IllegalArgumentException("--gen-xml needs --in to be a single XSD file");
+        XmlInstanceGenerator gen = new XmlInstanceGenerator(new XmlSchemaIndexer(cli), Spec.parse(cli.genSpec), cli.genSeed);
+        Path out = cli.genXml.toPath().toAbsolutePath();
+        if (out.getParent() != null) Files.createDirectories(out.getParent());
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        long records = cli.genRecords > 0 ? cli.genRecords : cli.genSize > 0 ? Long.MAX_VALUE : 1;
+        try {
+            long[] written;
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                written = gen.write(os, records, cli.genSize);
+            }
+            Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+            for (String w : gen.warnings()) System.err.println("⚠ " + w);
+            System.out.println("✔ " + cli.in.getName() + " -> " + out.getFileName() + " (" + written[0] + " records, " + written[1] + " bytes)");
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Writes {@code records} instances of the root element, or fewer once {@code maxBytes} (if
+     * positive) have been written; returns {records, bytes}.
+     */
+    public long[] write(OutputStream os, long records, long maxBytes) throws IOException, XMLStreamException {
+        Counting out = new Counting(new BufferedOutputStream(os, 1 << 16));
+        XmlSchemaElement root = idx.selectRootElement();
+        boolean batch = records > 1 || maxBytes > 0;
+        w = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+        w.writeStartDocument("UTF-8", "1.0");
+        w.writeCharacters("\n");
+        long n = 0;
+        if (batch) {
+            String name = "Batch".equals(root.getName()) ? "Batches" : "Batch";
+            w.writeStartElement(name);
+            declareNamespaces();
+            w.writeCharacters("\n");
+        }
+        while (n < records && (maxBytes <= 0 || out.count < maxBytes)) {
+            element(root, 0, !batch);
+            w.writeCharacters("\n");
+            w.flush();
+            n++;
+        }
+        if (batch) w.writeEndElement();
+        w.writeEndDocument();
+        w.flush();
+        w.close();
+        out.flush();
+        return new long[] { n, out.count };
+    }
+
+    private void declareNamespaces() throws XMLStreamException {
+        for (Map.Entry<String, String> e : prefixes.entrySet()) w.writeNamespace(e.getValue(), e.getKey());
+        if (spec.nil > 0) w.writeNamespace("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+    }
+
+    // ---- elements ----
+
+    // One occurrence of decl with its content
+    private void element(XmlSchemaElement decl, int depth, boolean documentElement) throws XMLStreamException {
+        QName name = documentElement || decl.isTopLevel() ? decl.getQName() : decl.getWireName();
+        startElement(name);
+        if (documentElement) declareNamespaces();
+        if (decl.getFixedValue() != null) {
+            w.writeCharacters(decl.getFixedValue());
+        } else if (decl.getSchemaType() instanceof XmlSchemaComplexType ct) {
+            complex(ct, depth + 1);
+        } else if (decl.getSchemaType() instanceof XmlSchemaSimpleType st) {
+            w.writeCharacters(simple(st));
+        } else {
+            XmlSchemaType t = idx.findType(decl.getSchemaTypeName());
+            if (t instanceof XmlSchemaComplexType ct) complex(ct, depth + 1);
+            else if (t instanceof XmlSchemaSimpleType st) w.writeCharacters(simple(st));
+            else w.writeCharacters(builtin(decl.getSchemaTypeName() != null ? decl.getSchemaTypeName().getLocalPart() : "string", Facets.NONE));
+        }
+        w.writeEndElement();
+    }
+
+    private void particleElement(XmlSchemaElement e, int depth) throws XMLStreamException {
+        XmlSchemaElement decl = e;
+        if (e.isRef() && e.getRef().getTargetQName() != null) {
+            decl = idx.findElement(e.getRef().getTargetQName());
+            if (decl == null) return;
+        }
+        int n = occurs(e.getMinOccurs(), e.getMaxOccurs(), depth);
+        for (int i = 0; i < n; i++) {
+            if (decl.isNillable() && e.getMinOccurs() == 0 && spec.nil > 0 && rnd.nextDouble() < spec.nil) {
+                startElement(decl.isTopLevel() ? decl.getQName() : decl.getWireName());
+                w.writeAttribute("xsi", XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "nil", "true");
+                w.writeEndElement();
+            } else {
+                element(decl, depth, false);
+            }
+        }
+    }
+
+    private void startElement(QName name) throws XMLStreamException {
+        String ns = name.getNamespaceURI();
+        if (ns == null || ns.isEmpty()) w.writeStartElement(name.getLocalPart());
+        else w.writeStartElement(prefixes.computeIfAbsent(ns, k -> "ns" + (prefixes.size() + 1)), name.getLocalPart(), ns);
+    }
+
+    private void complex(XmlSchemaComplexType ct, int depth) throws XMLStreamException {
+        if (depth > spec.depth + RECURSION_SLACK) {
+            throw new IllegalStateException("Required content of " + (ct.getName() != null ? ct.getName() : "an anonymous type")
+                    + " nests deeper than " + (spec.depth + RECURSION_SLACK) + " levels");
+        }
+        List<XmlSchemaAttributeOrGroupRef> attrs = new ArrayList<>();
+        List<XmlSchemaParticle> particles = new ArrayList<>();
+        String[] text = { null };
+        collect(ct, attrs, particles, text, new HashSet<>());
+        Set<QName> written = new HashSet<>();
+        for (XmlSchemaAttributeOrGroupRef a : attrs) attribute(a, written);
+        if (text[0] != null) {
+            w.writeCharacters(text[0]);
+            return;
+        }
+        for (XmlSchemaParticle p : particles) particle(p, depth);
+    }
+
+    // Attributes and content of ct including what it inherits; simple content is generated into text[0]
+    private void collect(XmlSchemaComplexType ct, List<XmlSchemaAttributeOrGroupRef> attrs, List<XmlSchemaParticle> particles,
+                         String[] text, Set<XmlSchemaComplexType> seen) {
+        if (!seen.add(ct)) return;
+        XmlSchemaContentModel content = ct.getContentModel();
+        if (content instanceof XmlSchemaComplexContent cc) {
+            if (cc.getContent() instanceof XmlSchemaComplexContentExtension ext) {
+                if (idx.findType(ext.getBaseTypeName()) instanceof XmlSchemaComplexType base) collect(base, attrs, particles, text, seen);
+                if (ext.getParticle() != null) particles.add(ext.getParticle());
+                attrs.addAll(ext.getAttributes());
+            } else if (cc.getContent() instanceof XmlSchemaComplexContentRestriction res) {
+                // a restriction repeats the content it keeps; only the base's attributes carry over
+                if (idx.findType(res.getBaseTypeName()) instanceof XmlSchemaComplexType base) {
+                    collect(base, attrs, new ArrayList<>(), new String[1], seen);
+                }
+                if (res.getParticle() != null) particles.add(res.getParticle());
+                attrs.addAll(res.getAttributes());
+            }
+        } else if (content instanceof XmlSchemaSimpleContent sc) {
+            QName base = null;
+            Facets facets = Facets.NONE;
+            if (sc.getContent() instanceof XmlSchemaSimpleContentExtension ext) {
+                base = ext.getBaseTypeName();
+                attrs.addAll(ext.getAttributes());
+            } else if (sc.getContent() instanceof XmlSchemaSimpleContentRestriction res) {
+                base = res.getBaseTypeName();
+                facets = Facets.of(res.getFacets());
+                attrs.addAll(res.getAttributes());
+            }
+            XmlSchemaType bt = idx.findType(base);
+            if (bt instanceof XmlSchemaComplexType bct) {
+                collect(bct, attrs, new ArrayList<>(), text, seen);
+                if (!facets.isEmpty() || text[0] == null) text[0] = builtin("string", facets);
+            } else if (bt instanceof XmlSchemaSimpleType st) {
+                text[0] = facets.isEmpty() ? simple(st) : restricted(st, facets);
+            } else {
+                text[0] = builtin(base != null ? base.getLocalPart() : "string", facets);
+            }
+        } else {
+            if (ct.getParticle() != null) particles.add(ct.getParticle());
+        }
+        attrs.addAll(ct.getAttributes());
+    }
+
+    private void particle(XmlSchemaParticle p, int depth) throws XMLStreamException {
+        if (p instanceof XmlSchemaElement e) {
+            particleElement(e, depth);
+            return;
+        }
+        int n = occurs(p.getMinOccurs(), p.getMaxOccurs(), depth);
+        for (int i = 0; i < n; i++) {
+            if (p instanceof XmlSchemaSequence seq) {
+                for (XmlSchemaSequenceMember m : seq.getItems()) if (m instanceof XmlSchemaParticle c) particle(c, depth);
+            } else if (p instanceof XmlSchemaAll all) {
+                for (XmlSchemaAllMember m : all.getItems()) if (m instanceof XmlSchemaParticle c) particle(c, depth);
+            } else if (p instanceof XmlSchemaChoice ch) {
+                List<XmlSchemaParticle> options = new ArrayList<>();
+                for (XmlSchemaChoiceMember m : ch.getItems()) if (m instanceof XmlSchemaParticle c && !(c instanceof XmlSchemaAny)) options.add(c);
+                if (!options.isEmpty()) particle(options.get(rnd.nextInt(options.size())), depth);
+            } else if (p instanceof XmlSchemaGroupRef gr) {
+                XmlSchemaGroup g = idx.findGroup(gr.getRefName());
+                if (g != null && g.getParticle() != null) groupParticle(g.getParticle(), depth);
+            }
+            // xs:any: nothing is generated
+        }
+    }
+
+    // The model group of an xs:group, occurring once per occurrence of the ref
+    private void groupParticle(XmlSchemaGroupParticle p, int depth) throws XMLStreamException {
+        if (p instanceof XmlSchemaSequence seq) {
+            for (XmlSchemaSequenceMember m : seq.getItems()) if (m instanceof XmlSchemaParticle c) particle(c, depth);
+        } else if (p instanceof XmlSchemaAll all) {
+            for (XmlSchemaAllMember m : all.getItems()) if (m instanceof XmlSchemaParticle c) particle(c, depth);
+        } else if (p instanceof XmlSchemaChoice ch) {
+            List<XmlSchemaParticle> options = new ArrayList<>();
+            for (XmlSchemaChoiceMember m : ch.getItems()) if (m instanceof XmlSchemaParticle c && !(c instanceof XmlSchemaAny)) options.add(c);
+            if (!options.isEmpty()) particle(options.get(rnd.nextInt(options.size())), depth);
+        }
+    }
+
+    // How often a particle occurs: optional ones with Spec.optional, repeated ones drawn from Spec.repeat
+    private int occurs(long min, long max, int depth) {
+        int lo = (int) Math.min(min, Integer.MAX_VALUE);
+        if (depth >= spec.depth) return lo;
+        if (max <= 1) return lo >= 1 || rnd.nextDouble() < spec.optional ? Math.max(lo, (int) Math.min(max, 1)) : 0;
+        if (lo == 0 && rnd.nextDouble() >= spec.optional) return 0;
+        int n = spec.repeatMin;
+        if (spec.geometric) {
+            while (n < spec.repeatMax && rnd.nextDouble() < 0.5) n++;
+        } else {
+            n += rnd.nextInt(spec.repeatMax - spec.repeatMin + 1);
+        }
+        return (int) Math.max(Math.max(lo, 1), Math.min(n, max));
+    }
+
+    // ---- attributes ----
+
+    private void attribute(XmlSchemaAttributeOrGroupRef a, Set<QName> written) throws XMLStreamException {
+        if (a instanceof XmlSchemaAttributeGroupRef gr) {
+            XmlSchemaAttributeGroup g = idx.findAttributeGroup(gr.getRef().getTargetQName());
+            if (g != null) {
+                for (XmlSchemaAttributeGroupMember m : g.getAttributes()) {
+                    if (m instanceof XmlSchemaAttributeOrGroupRef ag) attribute(ag, written);
+                }
+            }
+            return;
+        }
+        if (!(a instanceof XmlSchemaAttribute attr)) return;
+        XmlSchemaUse use = attr.getUse();
+        XmlSchemaAttribute decl = attr;
+        if (attr.isRef() && attr.getRef().getTargetQName() != null) {
+            decl = idx.findAttribute(attr.getRef().getTargetQName());
+            if (decl == null) return;
+        }
+        if (use == XmlSchemaUse.PROHIBITED) return;
+        if (use != XmlSchemaUse.REQUIRED && attr.getFixedValue() == null && rnd.nextDouble() >= spec.optional) return;
+        QName name = decl.isTopLevel() ? decl.getQName() : decl.getWireName();
+        if (!written.add(name)) return;
+        String value = attr.getFixedValue() != null ? attr.getFixedValue()
+                : decl.getFixedValue() != null ? decl.getFixedValue()
+                : decl.getSchemaType() != null ? simple(decl.getSchemaType())
+                : idx.findType(decl.getSchemaTypeName()) instanceof XmlSchemaSimpleType st ? simple(st)
+                : builtin(decl.getSchemaTypeName() != null ? decl.getSchemaTypeName().getLocalPart() : "string", Facets.NONE);
+        String ns = name.getNamespaceURI();
+        if (ns == null || ns.isEmpty()) w.writeAttribute(name.getLocalPart(), value);
+        else w.writeAttribute(prefixes.computeIfAbsent(ns, k -> "ns" + (prefixes.size() + 1)), ns, name.getLocalPart(), value);
+    }
+
+    // ---- simple values ----
+
+    /** Facets of a restriction chain; those closer to the use win. */
+    private record Facets(List<String> enumeration, List<String> patterns, Integer length, Integer minLength, Integer maxLength,
+                          Integer totalDigits, Integer fractionDigits, String minInclusive, String maxInclusive,
+                          String minExclusive, String maxExclusive) {
+        static final Facets NONE = new Facets(List.of(), List.of(), null, null, null, null, null, null, null, null, null);
+
+        static Facets of(List<XmlSchemaFacet> facets) {
+            List<String> en = new ArrayList<>(), pat = new ArrayList<>();
+            Integer len = null, minLen = null, maxLen = null, total = null, fraction = null;
+            String minI = null, maxI = null, minE = null, maxE = null;
+            for (XmlSchemaFacet f : facets) {
+                String v = String.valueOf(f.getValue()).trim();
+                if (f instanceof XmlSchemaEnumerationFacet) en.add(String.valueOf(f.getValue()));
+                else if (f instanceof XmlSchemaPatternFacet) pat.add(String.valueOf(f.getValue()));
+                else if (f instanceof XmlSchemaLengthFacet) len = Integer.valueOf(v);
+                else if (f instanceof XmlSchemaMinLengthFacet) minLen = Integer.valueOf(v);
+                else if (f instanceof XmlSchemaMaxLengthFacet) maxLen = Integer.valueOf(v);
+                else if (f instanceof XmlSchemaTotalDigitsFacet) total = Integer.valueOf(v);
+                else if (f instanceof XmlSchemaFractionDigitsFacet) fraction = Integer.valueOf(v);
+                else if (f instanceof XmlSchemaMinInclusiveFacet) minI = v;
+                else if (f instanceof XmlSchemaMaxInclusiveFacet) maxI = v;
+                else if (f instanceof XmlSchemaMinExclusiveFacet) minE = v;
+                else if (f instanceof XmlSchemaMaxExclusiveFacet) maxE = v;
+            }
+            return new Facets(en, pat, len, minLen, maxLen, total, fraction, minI, maxI, minE, maxE);
+        }
+
+        boolean isEmpty() { return equals(NONE); }
+
+        /** These facets on top of {@code base}'s. */
+        Facets over(Facets base) {
+            return new Facets(!enumeration.isEmpty() ? enumeration : base.enumeration,
+                    !patterns.isEmpty() ? patterns : base.patterns,
+                    length != null ? length : base.length, minLength != null ? minLength : base.minLength,
+                    maxLength != null ? maxLength : base.maxLength, totalDigits != null ? totalDigits : base.totalDigits,
+                    fractionDigits != null ? fractionDigits : base.fractionDigits,
+                    minInclusive != null ? minInclusive : base.minInclusive, maxInclusive != null ? maxInclusive : base.maxInclusive,
+                    minExclusive != null ? minExclusive : base.minExclusive, maxExclusive != null ? maxExclusive : base.maxExclusive);
+        }
+    }
+
+    private String simple(XmlSchemaSimpleType st) {
+        return restricted(st, Facets.NONE);
+    }
+
+    // A value of st further restricted by facets
+    private String restricted(XmlSchemaSimpleType st, Facets facets) {
+        for (int hops = 0; hops < 64; hops++) {
+            if (st.getQName() != null && XS.equals(st.getQName().getNamespaceURI())) return builtin(st.getQName().getLocalPart(), facets);
+            XmlSchemaSimpleTypeContent c = st.getContent();
+            if (c instanceof XmlSchemaSimpleTypeRestriction res) {
+                facets = facets.over(Facets.of(res.getFacets()));
+                XmlSchemaSimpleType next = res.getBaseType();
+                if (next == null) {
+                    QName base = res.getBaseTypeName();
+                    if (base == null || XS.equals(base.getNamespaceURI())) {
+                        return builtin(base != null ? base.getLocalPart() : "string", facets);
+                    }
+                    next = idx.findType(base) instanceof XmlSchemaSimpleType named ? named : null;
+                    if (next == null) return builtin("string", facets);
+                }
+                st = next;
+            } else if (c instanceof XmlSchemaSimpleTypeList list) {
+                if (!facets.enumeration.isEmpty()) return pick(facets.enumeration);
+                int n = 1 + rnd.nextInt(3);
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < n; i++) {
+                    if (i > 0) sb.append(' ');
+                    sb.append(item(list.getItemType(), list.getItemTypeName()));
+                }
+                return sb.toString();
+            } else if (c instanceof XmlSchemaSimpleTypeUnion union) {
+                if (!facets.enumeration.isEmpty()) return pick(facets.enumeration);
+                List<Object> members = new ArrayList<>();
+                if (union.getMemberTypesQNames() != null) members.addAll(List.of(union.getMemberTypesQNames()));
+                if (union.getBaseTypes() != null) members.addAll(union.getBaseTypes());
+                if (members.isEmpty()) return builtin("string", facets);
+                Object m = members.get(rnd.nextInt(members.size()));
+                return m instanceof XmlSchemaSimpleType mt ? simple(mt) : item(null, (QName) m);
+            } else {
+                return builtin("string", facets);
+            }
+        }
+        return builtin("string", facets);
+    }
+
+    private String item(XmlSchemaSimpleType type, QName name) {
+        if (type != null) return simple(type);
+        if (name == null || XS.equals(name.getNamespaceURI())) return builtin(name != null ? name.getLocalPart() : "string", Facets.NONE);
+        return idx.findType(name) instanceof XmlSchemaSimpleType st ? simple(st) : builtin("string", Facets.NONE);
+    }
+
+    private String builtin(String xsd, Facets f) {
+        if (!f.enumeration.isEmpty()) return pick(f.enumeration);
+        if (!f.patterns.isEmpty()) {
+            String p = f.patterns.get(rnd.nextInt(f.patterns.size()));
+            if (!badPatterns.contains(p)) {
+                try {
+                    // draw again when the match breaks a length facet
+                    StringBuilder sb = new StringBuilder();
+                    for (int attempt = 0; attempt < 16; attempt++) {
+                        sb.setLength(0);
+                        new Regex(p).alternatives(0, p.length(), sb);
+                        if (fits(sb.length(), f)) break;
+                    }
+                    return sb.toString();
+                } catch (IllegalArgumentException e) {
+                    badPatterns.add(p);
+                    warnings.add("Pattern '" + p + "' is not supported by the generator (" + e.getMessage() + "); writing plain strings");
+                }
+            }
+        }
+        return switch (xsd) {
+            case "boolean" -> rnd.nextBoolean() ? "true" : "false";
+            case "byte" -> integer(f, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            case "short" -> integer(f, Short.MIN_VALUE, Short.MAX_VALUE);
+            case "int" -> integer(f, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            case "long", "integer" -> integer(f, Long.MIN_VALUE, Long.MAX_VALUE);
+            case "unsignedByte" -> integer(f, 0, 255);
+            case "unsignedShort" -> integer(f, 0, 65535);
+            case "unsignedInt" -> integer(f, 0, 4294967295L);
+            case "unsignedLong", "nonNegativeInteger" -> integer(f, 0, Long.MAX_VALUE);
+            case "positiveInteger" -> integer(f, 1, Long.MAX_VALUE);
+            case "nonPositiveInteger" -> integer(f, Long.MIN_VALUE, 0);
+            case "negativeInteger" -> integer(f, Long.MIN_VALUE, -1);
+            case "decimal" -> decimal(f);
+            case "float", "double" -> decimal(new Facets(List.of(), List.of(), null, null, null, null, 2,
+                    f.minInclusive, f.maxInclusive, f.minExclusive, f.maxExclusive));
+            case "dateTime" -> instant().format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'"));
+            case "date" -> instant().format(DateTimeFormatter.ISO_LOCAL_DATE);
+            case "time" -> instant().format(DateTimeFormatter.ofPattern("HH:mm:ss"));
+            case "gYear" -> String.valueOf(instant().getYear());
+            case "gYearMonth" -> instant().format(DateTimeFormatter.ofPattern("yyyy-MM"));
+            case "gMonthDay" -> instant().format(DateTimeFormatter.ofPattern("--MM-dd"));
+            case "gMonth" -> instant().format(DateTimeFormatter.ofPattern("--MM"));
+            case "gDay" -> instant().format(DateTimeFormatter.ofPattern("---dd"));
+            case "duration" -> "P" + rnd.nextInt(30) + "DT" + rnd.nextInt(24) + "H" + rnd.nextInt(60) + "M";
+            case "base64Binary" -> Base64.getEncoder().encodeToString(bytes(f));
+            case "hexBinary" -> HexFormat.of().withUpperCase().formatHex(bytes(f));
+            case "anyURI" -> "urn:example:" + string(f, 0);
+            case "language" -> pick(List.of("en", "nl", "de", "fr", "en-US"));
+            case "Name", "NCName", "ID", "IDREF", "ENTITY", "NMTOKEN", "QName" -> string(f, 1);
+            default -> string(f, 0);
+        };
+    }
+
+    private static boolean fits(int len, Facets f) {
+        return (f.length == null || len == f.length) && (f.minLength == null || len >= f.minLength)
+                && (f.maxLength == null || len <= f.maxLength);
+    }
+
+    private LocalDateTime instant() {
+        return LocalDateTime.ofEpochSecond(rnd.nextLong(EPOCH_FROM, EPOCH_TO), 0, ZoneOffset.UTC);
+    }
+
+    // Alphanumeric string within the length facets; name: must start with a letter
+    private String string(Facets f, int letters) {
+        int lo = spec.stringMin, hi = spec.stringMax;
+        if (f.length != null) lo = hi = f.length;
+        if (f.minLength != null) { lo = Math.max(lo, f.minLength); hi = Math.max(hi, lo); }
+        if (f.maxLength != null) { hi = Math.min(hi, f.maxLength); lo = Math.min(lo, hi); }
+        lo = Math.max(lo, letters);
+        int n = lo + rnd.nextInt(hi - lo + 1);
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) sb.append(ALNUM.charAt(rnd.nextInt(i < letters ? 52 : ALNUM.length())));
+        return sb.toString();
+    }
+
+    private byte[] bytes(Facets f) {
+        int lo = f.length != null ? f.length : f.minLength != null ? f.minLength : 4;
+        int hi = f.length != null ? f.length : f.maxLength != null ? f.maxLength : Math.max(lo, 16);
+        byte[] b = new byte[lo + rnd.nextInt(Math.max(1, hi - lo + 1))];
+        rnd.nextBytes(b);
+        return b;
+    }
+
+    // Integers default to 0..999999 (or the type's range if narrower), widened by totalDigits or range facets
+    private String integer(Facets f, long typeMin, long typeMax) {
+        long lo = typeMax < 0 ? Math.max(typeMin, -999_999) : Math.max(typeMin, 0);
+        long hi = typeMax < 0 ? typeMax : Math.min(typeMax, 999_999);
+        if (f.totalDigits != null && f.totalDigits < 19) {
+            long cap = pow10(f.totalDigits) - 1;
+            if (typeMax >= 0) hi = Math.min(typeMax, cap);
+            lo = Math.max(lo, -cap);
+        }
+        Long minF = bound(f.minInclusive, f.minExclusive, 1), maxF = bound(f.maxInclusive, f.maxExclusive, -1);
+        if (minF != null) { lo = Math.max(typeMin, minF); if (hi < lo) hi = Math.min(typeMax, sat(lo, 999_999)); }
+        if (maxF != null) { hi = Math.min(typeMax, maxF); if (lo > hi) lo = Math.max(typeMin, sat(hi, -999_999)); }
+        if (lo >= hi) return String.valueOf(lo);
+        return String.valueOf(hi == Long.MAX_VALUE ? rnd.nextLong(lo, hi) : rnd.nextLong(lo, hi + 1));
+    }
+
+    private static Long bound(String inclusive, String exclusive, int step) {
+        try {
+            if (inclusive != null) return new BigDecimal(inclusive).setScale(0, step > 0 ? RoundingMode.CEILING : RoundingMode.FLOOR).longValueExact();
+            if (exclusive != null) {
+                BigDecimal e = new BigDecimal(exclusive);
+                BigDecimal r = e.setScale(0, step > 0 ? RoundingMode.FLOOR : RoundingMode.CEILING);
+                return r.longValueExact() + step;
+            }
+        } catch (ArithmeticException | NumberFormatException ignore) {}
+        return null;
+    }
+
+    private String decimal(Facets f) {
+        int fraction = f.fractionDigits != null ? Math.min(f.fractionDigits, 4) : 2;
+        int intDigits = Math.min(f.totalDigits != null ? Math.max(0, f.totalDigits - fraction) : 6, 6);
+        BigDecimal max = BigDecimal.ONE.movePointRight(intDigits).subtract(BigDecimal.ONE.movePointLeft(fraction));
+        BigDecimal min = BigDecimal.ZERO;
+        try {
+            if (f.minInclusive != null) min = new BigDecimal(f.minInclusive);
+            else if (f.minExclusive != null) min = new BigDecimal(f.minExclusive).add(BigDecimal.ONE.movePointLeft(fraction));
+            if (f.maxInclusive != null) max = new BigDecimal(f.maxInclusive);
+            else if (f.maxExclusive != null) max = new BigDecimal(f.maxExclusive).subtract(BigDecimal.ONE.movePointLeft(fraction));
+        } catch (NumberFormatException ignore) {}
+        if (max.compareTo(min) < 0) max = min;
+        BigDecimal v = min.add(max.subtract(min).multiply(BigDecimal.valueOf(rnd.nextDouble())));
+        return v.setScale(fraction, RoundingMode.DOWN).max(min.setScale(fraction, RoundingMode.UP)).toPlainString();
+    }
+
+    private static long pow10(int n) {
+        long p = 1;
+        for (int i = 0; i < n; i++) p *= 10;
+        return p;
+    }
+
+    private static long sat(long a, long b) {
+        long r = a + b;
+        return ((a ^ r) & (b ^ r)) < 0 ? (a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE) : r;
+    }
+
+    private String pick(List<String> values) {
+        return values.get(rnd.nextInt(values.size()));
+    }
+
+    /**
+     * Random matches of an XSD pattern: literals, {@code .}, character classes (ranges, {@code \d},
+     * {@code \w}, ...), groups with alternation and the quantifiers {@code ? * + {n} {n,} {n,m}}.
+     * Negated classes, subtraction and {@code \p{..}} blocks are not supported.
+     */
+    private final class Regex {
+        private final String re;
+
+        Regex(String re) { this.re = re; }
+
+        void alternatives(int from, int to, StringBuilder out) {
+            List<int[]> alts = new ArrayList<>();
+            int start = from, depth = 0;
+            for (int i = from; i < to; i++) {
+                char c = re.charAt(i);
+                if (c == '\\') i++;
+                else if (c == '[') i = classEnd(i) - 1;
+                else if (c == '(') depth++;
+                else if (c == ')') depth--;
+                else if (c == '|' && depth == 0) { alts.add(new int[] { start, i }); start = i + 1; }
+            }
+            alts.add(new int[] { start, to });
+            int[] a = alts.get(rnd.nextInt(alts.size()));
+            sequence(a[0], a[1], out);
+        }
+
+        private void sequence(int i, int end, StringBuilder out) {
+            while (i < end) {
+                int j = atomEnd(i, end);
+                int min = 1, max = 1, k = j;
+                if (k < end) {
+                    char q = re.charAt(k);
+                    if (q == '?') { min = 0; max = 1; k++; }
+                    else if (q == '*') { min = 0; max = 3; k++; }
+                    else if (q == '+') { min = 1; max = 4; k++; }
+                    else if (q == '{') {
+                        int close = re.indexOf('}', k);
+                        if (close < 0 || close > end) throw new IllegalArgumentException("unterminated {");
+                        String[] mm = re.substring(k + 1, close).split(",", -1);
+                        min = Integer.parseInt(mm[0].trim());
+                        max = mm.length == 1 ? min : mm[1].isBlank() ? min + 3 : Integer.parseInt(mm[1].trim());
+                        k = close + 1;
+                    }
+                }
+                int reps = min + rnd.nextInt(max - min + 1);
+                for (int r = 0; r < reps; r++) atom(i, j, out);
+                i = k;
+            }
+        }
+
+        private int atomEnd(int i, int end) {
+            char c = re.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= end) throw new IllegalArgumentException("trailing \\");
+                if (re.charAt(i + 1) == 'p' || re.charAt(i + 1) == 'P') throw new IllegalArgumentException("\\p{..} blocks");
+                return i + 2;
+            }
+            if (c == '[') return classEnd(i);
+            if (c == '(') {
+                int depth = 0;
+                for (int k = i; k < end; k++) {
+                    char d = re.charAt(k);
+                    if (d == '\\') k++;
+                    else if (d == '[') k = classEnd(k) - 1;
+                    else if (d == '(') depth++;
+                    else if (d == ')' && --depth == 0) return k + 1;
+                }
+                throw new IllegalArgumentException("unbalanced (");
+            }
+            if (c == ')' || c == '|') throw new IllegalArgumentException("unexpected " + c);
+            return i + 1;
+        }
+
+        private int classEnd(int i) {
+            for (int k = i + 1; k < re.length(); k++) {
+                char c = re.charAt(k);
+                if (c == '\\') k++;
+                else if (c == '[') throw new IllegalArgumentException("class subtraction");
+                else if (c == ']') return k + 1;
+            }
+            throw new IllegalArgumentException("unterminated [");
+        }
+
+        private void atom(int i, int j, StringBuilder out) {
+            char c = re.charAt(i);
+            if (c == '(') {
+                int from = i + 1;
+                if (re.startsWith("?:", from)) from += 2;
+                alternatives(from, j - 1, out);
+            } else if (c == '[') {
+                out.append(fromClass(i + 1, j - 1));
+            } else if (c == '\\') {
+                out.append(escape(re.charAt(i + 1)));
+            } else if (c == '.') {
+                out.append(ALNUM.charAt(rnd.nextInt(ALNUM.length())));
+            } else {
+                out.append(c);
+            }
+        }
+
+        private char fromClass(int from, int to) {
+            if (from < to && re.charAt(from) == '^') throw new IllegalArgumentException("negated class");
+            StringBuilder chars = new StringBuilder();
+            for (int k = from; k < to; k++) {
+                char c = re.charAt(k);
+                if (c == '\\') {
+                    char e = re.charAt(++k);
+                    chars.append(switch (e) {
+                        case 'd' -> "0123456789";
+                        case 'w', 'i', 'c' -> ALNUM;
+                        case 's' -> " ";
+                        case 'n' -> "\n";
+                        case 't' -> "\t";
+                        default -> String.valueOf(e);
+                    });
+                } else if (k + 2 < to && re.charAt(k + 1) == '-') {
+                    char hi = re.charAt(k + 2);
+                    for (char x = c; x <= hi; x++) chars.append(x);
+                    k += 2;
+                } else {
+                    chars.append(c);
+                }
+            }
+            if (chars.isEmpty()) throw new IllegalArgumentException("empty class");
+            return chars.charAt(rnd.nextInt(chars.length()));
+        }
+
+        private char escape(char e) {
+            return switch (e) {
+                case 'd' -> (char) ('0' + rnd.nextInt(10));
+                case 'w', 'i', 'c' -> ALNUM.charAt(rnd.nextInt(52));
+                case 's' -> ' ';
+                case 'n' -> '\n';
+                case 't' -> '\t';
+                case 'D', 'W', 'S', 'I', 'C' -> throw new IllegalArgumentException("negated escape \\" + e);
+                default -> e;
+            };
+        }
+    }
+
+    /** Bytes written so far, for --gen-size. */
+    private static final class Counting extends FilterOutputStream {
+        long count;
+
+        Counting(OutputStream out) { super(out); }
+
+        @Override public void write(int b) throws IOException { out.write(b); count++; }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+    }
+}
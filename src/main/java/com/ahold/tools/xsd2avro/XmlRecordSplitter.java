@@ -0,0 +1,267 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@code --record-path}: cuts a large XML file into chunks of consecutive record elements that
+ * can be parsed independently.
+ *
+ * The file is read once, sequentially, with a byte-level scanner that only tracks markup:
+ * comments, CDATA sections, processing instructions, DOCTYPE and quoted attribute values are
+ * skipped, so a {@code <Order>} inside any of them is never taken for a record. A chunk is a byte
+ * range of whole records under one parent element. It is re-parsed inside a wrapper element that
+ * re-declares the namespaces in scope at that parent and uses the document's encoding. Other
+ * elements between the records are in the range too; only the wrapper's direct children are
+ * records ({@link XmlAvroEncoder#encodeChildren}).
+ * ASCII-compatible encodings only (UTF-8, ISO-8859-x, windows-125x).
+ */
+final class XmlRecordSplitter {
+    private static final String WRAPPER = "xsd2avro-chunk";
+    private static final Pattern XMLNS = Pattern.compile("\\sxmlns(?::([^\\s=]+))?\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+
+    /** Records {@code [start, end)} of the file, to be parsed with {@code prolog} in front. */
+    record Chunk(long start, long end, int records, byte[] prolog, byte[] epilog) {}
+
+    @FunctionalInterface
+    interface ChunkSink {
+        void chunk(Chunk c) throws IOException;
+    }
+
+    private enum State { TEXT, MARKUP, START_TAG, END_TAG, COMMENT, CDATA, PI, DECL }
+
+    private final String[] path;
+    private final long target;
+
+    /** @param targetBytes chunks are closed once they span this many bytes of XML */
+    XmlRecordSplitter(String path, long targetBytes) {
+        this.path = path.replaceAll("^/+|/+$", "").split("/+");
+        this.target = Math.max(1, targetBytes);
+    }
+
+    void scan(FileChannel ch, ChunkSink sink) throws IOException {
+        new Scanner(sink).run(ch);
+    }
+
+    /** The chunk as a standalone document. */
+    static InputStream open(FileChannel ch, Chunk c) throws IOException {
+        long n = c.end() - c.start();
+        if (n > Integer.MAX_VALUE - 64) throw new IOException("Record larger than 2 GB at offset " + c.start());
+        ByteBuffer buf = ByteBuffer.allocate((int) n);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, c.start() + buf.position()) < 0) throw new EOFException("File shrank while reading");
+        }
+        return new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(c.prolog()), new ByteArrayInputStream(buf.array()), new ByteArrayInputStream(c.epilog()))));
+    }
+
+    private final class Scanner {
+        private final ChunkSink sink;
+        private State state = State.TEXT;
+        private byte[] tag = new byte[256];
+        private int tagLen;
+        private long tagStart;
+        private byte quote;
+        private int declDepth;
+        private byte b1, b2; // last two bytes, for --> ]]> ?>
+
+        private Charset charset = StandardCharsets.UTF_8;
+        private byte[][] steps;
+        private int depth;   // open elements
+        private int matched; // leading path steps matched by the open elements
+        private final List<Map<String, String>> scopes = new ArrayList<>(); // xmlns decls of open ancestors
+
+        private long chunkStart = -1, chunkEnd;
+        private int chunkRecords;
+        private byte[] chunkProlog;
+
+        Scanner(ChunkSink sink) { this.sink = sink; }
+
+        void run(FileChannel ch) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            byte[] arr = new byte[1 << 20];
+            long pos = 0;
+            boolean first = true;
+            while (ch.read(buf) > 0 || buf.position() > 0) {
+                buf.flip();
+                int n = buf.remaining();
+                buf.get(arr, 0, n);
+                buf.clear();
+                int i = 0;
+                if (first) {
+                    first = false;
+                    if (n >= 2 && ((arr[0] == (byte) 0xFE && arr[1] == (byte) 0xFF) || (arr[0] == (byte) 0xFF && arr[1] == (byte) 0xFE))) {
+                        throw new IOException("--record-path needs an ASCII-compatible encoding (file is UTF-16)");
+                    }
+                    if (n >= 3 && arr[0] == (byte) 0xEF && arr[1] == (byte) 0xBB && arr[2] == (byte) 0xBF) i = 3;
+                }
+                for (; i < n; i++) step(arr[i], pos + i);
+                pos += n;
+            }
+            if (state != State.TEXT) throw new IOException("Unexpected end of file inside markup at offset " + tagStart);
+            emit();
+        }
+
+        private void step(byte b, long pos) throws IOException {
+            switch (state) {
+                case TEXT -> {
+                    if (b == '<') { state = State.MARKUP; tagStart = pos; tagLen = 0; append(b); }
+                }
+                case MARKUP -> {
+                    append(b);
+                    if (tagLen == 2) {
+                        if (b == '/') state = State.END_TAG;
+                        else if (b == '?') { state = State.PI; b1 = b2 = 0; }
+                        else if (b != '!') { state = State.START_TAG; quote = 0; }
+                    } else if (tagLen == 3) { // "<!" + one more
+                        if (b == '-') { state = State.COMMENT; b1 = b2 = 0; }
+                        else if (b == '[') { state = State.CDATA; b1 = b2 = 0; }
+                        else { state = State.DECL; quote = 0; declDepth = 0; }
+                    }
+                }
+                case START_TAG -> {
+                    append(b);
+                    if (quote != 0) { if (b == quote) quote = 0; }
+                    else if (b == '"' || b == '\'') quote = b;
+                    else if (b == '>') { state = State.TEXT; startTag(pos); }
+                }
+                case END_TAG -> {
+                    if (b == '>') { state = State.TEXT; endTag(pos); }
+                }
+                case COMMENT -> {
+                    if (b == '>' && b1 == '-' && b2 == '-') state = State.TEXT;
+                    shift(b);
+                }
+                case CDATA -> {
+                    if (b == '>' && b1 == ']' && b2 == ']') state = State.TEXT;
+                    shift(b);
+                }
+                case PI -> {
+                    if (tagLen < 256) append(b); // keeps the XML declaration for its encoding
+                    if (b == '>' && b2 == '?') { state = State.TEXT; xmlDecl(); }
+                    shift(b);
+                }
+                case DECL -> {
+                    if (quote != 0) { if (b == quote) quote = 0; }
+                    else if (b == '"' || b == '\'') quote = b;
+                    else if (b == '[') declDepth++;
+                    else if (b == ']') declDepth--;
+                    else if (b == '>' && declDepth <= 0) state = State.TEXT;
+                }
+            }
+        }
+
+        private void shift(byte b) { b1 = b2; b2 = b; }
+
+        private void append(byte b) {
+            if (tagLen == tag.length) tag = Arrays.copyOf(tag, tag.length * 2);
+            tag[tagLen++] = b;
+        }
+
+        private void xmlDecl() throws IOException {
+            String s = new String(tag, 0, tagLen, StandardCharsets.ISO_8859_1);
+            if (!s.startsWith("<?xml") || depth > 0) return;
+            Matcher m = ENCODING.matcher(s);
+            if (!m.find()) return;
+            if (m.group(1).toUpperCase().matches("UTF-?(16|32).*|UCS.*")) {
+                throw new IOException("--record-path needs an ASCII-compatible encoding (file is " + m.group(1) + ")");
+            }
+            charset = Charset.forName(m.group(1));
+        }
+
+        private void startTag(long pos) throws IOException {
+            boolean empty = tag[tagLen - 2] == '/';
+            int nameEnd = 1;
+            while (nameEnd < tagLen && !isSpace(tag[nameEnd]) && tag[nameEnd] != '/' && tag[nameEnd] != '>') nameEnd++;
+            int local = 1;
+            for (int i = 1; i < nameEnd; i++) if (tag[i] == ':') local = i + 1;
+
+            depth++;
+            if (depth < path.length) {
+                emit(); // records of one chunk must share their parent element
+                scopes.add(xmlns());
+            }
+            if (matched == depth - 1 && depth <= path.length && nameIs(local, nameEnd, depth - 1)) matched = depth;
+            if (matched == path.length && depth == path.length) {
+                if (chunkStart < 0) { chunkStart = tagStart; chunkRecords = 0; chunkProlog = prolog(); }
+                if (empty) record(pos);
+            }
+            if (empty) pop();
+        }
+
+        private void endTag(long pos) throws IOException {
+            if (matched == path.length && depth == path.length) record(pos);
+            pop();
+        }
+
+        private void pop() throws IOException {
+            if (matched == depth) matched--;
+            if (depth < path.length) {
+                scopes.remove(scopes.size() - 1);
+                emit();
+            }
+            depth--;
+        }
+
+        private void record(long pos) throws IOException {
+            chunkEnd = pos + 1;
+            chunkRecords++;
+            if (chunkEnd - chunkStart >= target) emit();
+        }
+
+        private void emit() throws IOException {
+            if (chunkStart >= 0 && chunkRecords > 0) {
+                byte[] epilog = ("</" + WRAPPER + ">").getBytes(charset);
+                sink.chunk(new Chunk(chunkStart, chunkEnd, chunkRecords, chunkProlog, epilog));
+            }
+            chunkStart = -1;
+            chunkRecords = 0;
+        }
+
+        private boolean nameIs(int from, int to, int step) {
+            if (steps == null) {
+                steps = new byte[path.length][];
+                for (int i = 0; i < path.length; i++) steps[i] = path[i].getBytes(charset);
+            }
+            byte[] s = steps[step];
+            return Arrays.equals(tag, from, to, s, 0, s.length);
+        }
+
+        private Map<String, String> xmlns() {
+            Map<String, String> decls = new LinkedHashMap<>();
+            Matcher m = XMLNS.matcher(new String(tag, 0, tagLen, charset));
+            while (m.find()) decls.put(m.group(1) == null ? "" : m.group(1), m.group(2));
+            return decls;
+        }
+
+        private byte[] prolog() {
+            Map<String, String> inScope = new LinkedHashMap<>();
+            for (Map<String, String> s : scopes) inScope.putAll(s);
+            StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"").append(charset.name()).append("\"?><").append(WRAPPER);
+            for (Map.Entry<String, String> e : inScope.entrySet()) {
+                sb.append(" xmlns").append(e.getKey().isEmpty() ? "" : ":" + e.getKey()).append('=').append(e.getValue());
+            }
+            return sb.append('>').toString().getBytes(charset);
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+    }
+}
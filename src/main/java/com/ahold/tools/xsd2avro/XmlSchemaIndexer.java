@@ -2,61 +2,118 @@ package com.ahold.tools.xsd2avro;
 
 import org.apache.ws.commons.schema.*;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import org.w3c.dom.Document;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 public class XmlSchemaIndexer {
-    private final OptionsCli cli;
+    private final ConversionConfig config;
     private final XmlSchemaCollection coll;
     private final XmlSchema mainSchema;
+    private final List<XmlSchema> schemas;
+    // Merged global symbol tables over all reachable schema documents
+    private final Map<QName, XmlSchemaType> types = new HashMap<>();
+    private final Map<QName, XmlSchemaElement> elements = new LinkedHashMap<>();
+    private final Map<QName, XmlSchemaGroup> groups = new HashMap<>();
+    private final Map<QName, XmlSchemaAttributeGroup> attributeGroups = new HashMap<>();
+    private final Map<XmlSchemaObject, XmlSchema> origins = new IdentityHashMap<>();
+    private final List<String> warnings = new ArrayList<>();
+    // --include-path: types, groups and attribute groups are looked up when the walk first needs
+    // them instead of indexing every definition of the schema set up front
+    private final boolean lazy;
 
     public XmlSchemaIndexer(OptionsCli cli) throws Exception {
-        this.cli = cli;
-        this.coll = new XmlSchemaCollection();
-
-        // Null-safe base URI (works with relative paths)
-        java.io.File parent = cli.in.getParentFile();
-        if (parent == null) parent = cli.in.getAbsoluteFile().getParentFile();
-        if (parent == null) parent = new java.io.File(".").getAbsoluteFile();
-        coll.setBaseUri(parent.toURI().toString());
-
-        try (InputStream in = new FileInputStream(cli.in)) {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.parse(in);
-            this.mainSchema = coll.read(doc, cli.in.toURI().toString());
+        this(cli, new SchemaCache());
+    }
+
+    public XmlSchemaIndexer(OptionsCli cli, SchemaCache cache) throws Exception {
+        this(cli, cache, new ConversionStats(cli.in.getName()));
+    }
+
+    XmlSchemaIndexer(OptionsCli cli, SchemaCache cache, ConversionStats stats) throws Exception {
+        this(cli.in.toURI().toString(), ConversionConfig.of(cli), cache, stats);
+    }
+
+    /** Indexes the XSD at {@code rootUri} (resolved through {@code cache}) and what it includes/imports. */
+    XmlSchemaIndexer(String rootUri, ConversionConfig config, SchemaCache cache, ConversionStats stats) throws Exception {
+        this.config = config;
+        this.lazy = !config.includePaths().isEmpty();
+        this.mainSchema = cache.load(rootUri, stats);
+        this.coll = mainSchema.getParent();
+        ConversionStats.Span span = stats.phase(ConversionStats.Phase.INDEX);
+        try {
+            this.schemas = reachable(mainSchema);
+            index();
+        } finally {
+            span.close();
         }
     }
 
+    // Only what this XSD pulls in; the collection also holds other roots and the XSD built-in types
+    private static List<XmlSchema> reachable(XmlSchema main) {
+        List<XmlSchema> out = new ArrayList<>();
+        Set<XmlSchema> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<XmlSchema> todo = new ArrayDeque<>();
+        todo.push(main);
+        while (!todo.isEmpty()) {
+            XmlSchema s = todo.pop();
+            if (!seen.add(s)) continue;
+            out.add(s);
+            List<XmlSchemaExternal> ext = s.getExternals();
+            for (int i = ext.size() - 1; i >= 0; i--) {
+                XmlSchema child = ext.get(i).getSchema();
+                if (child != null) todo.push(child);
+            }
+        }
+        return out;
+    }
+
     public XmlSchema schema() { return mainSchema; }
+    /** Shared with other roots of the {@link SchemaCache}; look definitions up through this index. */
     public XmlSchemaCollection collection() { return coll; }
 
-    public XmlSchemaElement selectRootElement() {
-        List<XmlSchemaElement> globals = new ArrayList<>();
-        for (XmlSchema s : coll.getXmlSchemas()) {
-            if (s == null) continue;
-            // elements() -> Map<QName, XmlSchemaElement> in xmlschema-core
-            for (XmlSchemaElement e : s.getElements().values()) {
-                if (e != null) globals.add(e);
-            }
+    /** System ids of the root document and everything it includes/imports, root first. */
+    public List<String> sourceUris() {
+        List<String> out = new ArrayList<>();
+        for (XmlSchema s : schemas) if (s.getSourceURI() != null && !out.contains(s.getSourceURI())) out.add(s.getSourceURI());
+        return out;
+    }
+
+    /** Target namespaces of the root document and everything it includes/imports, root first. */
+    public List<String> targetNamespaces() {
+        List<String> out = new ArrayList<>();
+        for (XmlSchema s : schemas) {
+            String tns = s.getTargetNamespace();
+            if (tns != null && !tns.isEmpty() && !out.contains(tns)) out.add(tns);
         }
+        return out;
+    }
+
+    public XmlSchemaElement selectRootElement() {
+        List<XmlSchemaElement> globals = new ArrayList<>(elements.values());
         if (globals.isEmpty()) throw new IllegalStateException("No global elements in XSDs.");
 
         // If user forced a root name, honor it
-        if (cli.rootName != null && !cli.rootName.isBlank()) {
+        String rootName = config.rootName();
+        if (rootName != null) {
             for (XmlSchemaElement e : globals) {
-                if (cli.rootName.equals(e.getName())) return e;
-                if (e.getQName() != null && cli.rootName.equals(e.getQName().getLocalPart())) return e;
+                if (rootName.equals(e.getName())) return e;
+                if (e.getQName() != null && rootName.equals(e.getQName().getLocalPart())) return e;
             }
-            throw new IllegalArgumentException("Root element '" + cli.rootName + "' not found.");
+            throw new IllegalArgumentException("Root element '" + rootName + "' not found.");
         }
 
         // Prefer a global element literally named 'Payload' (case-insensitive)
@@ -70,8 +127,32 @@ public class XmlSchemaIndexer {
         return globals.get(0);
     }
 
+    /**
+     * Global elements of the root document and its includes (not of imported namespaces) whose
+     * name matches {@code glob} ({@code *} for all), in index order (that of {@link #selectRootElement()}).
+     */
+    public List<XmlSchemaElement> globalElements(String glob) {
+        PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + glob); // same syntax as --glob
+        Set<XmlSchema> own = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<XmlSchema> todo = new ArrayDeque<>();
+        todo.push(mainSchema);
+        while (!todo.isEmpty()) {
+            XmlSchema s = todo.pop();
+            if (!own.add(s)) continue;
+            for (XmlSchemaExternal ext : s.getExternals()) {
+                if (!(ext instanceof XmlSchemaImport) && ext.getSchema() != null) todo.push(ext.getSchema());
+            }
+        }
+        List<XmlSchemaElement> out = new ArrayList<>();
+        for (XmlSchemaElement e : elements.values()) {
+            String n = e.getName() != null ? e.getName() : e.getQName().getLocalPart();
+            if (own.contains(origins.get(e)) && m.matches(Path.of(n))) out.add(e);
+        }
+        return out;
+    }
+
     public String deriveNamespace() {
-        if (cli.namespace != null && !cli.namespace.isBlank()) return cli.namespace;
+        if (config.namespace() != null) return config.namespace();
         String tns = mainSchema != null ? mainSchema.getTargetNamespace() : null;
         if (tns == null || tns.isBlank()) return "xsd2avro.generated";
         String trimmed = tns.replaceFirst("^https?://", "").replaceFirst("^urn:", "");
@@ -86,48 +167,75 @@ public class XmlSchemaIndexer {
     }
 
     public XmlSchemaType findType(QName qn) {
-        if (qn == null) return null;
-        for (XmlSchema s : coll.getXmlSchemas()) {
-            if (s == null) continue;
-            XmlSchemaType t = s.getTypeByName(qn);
-            if (t != null) return t;
-        }
-        return null;
+        return qn == null ? null : lazy ? lookup(types, qn, XmlSchema::getSchemaTypes, "type") : types.get(qn);
     }
 
     public XmlSchemaElement findElement(QName qn) {
+        return qn == null ? null : elements.get(qn);
+    }
+
+    public XmlSchemaGroup findGroup(QName qn) {
+        return qn == null ? null : lazy ? lookup(groups, qn, XmlSchema::getGroups, "group") : groups.get(qn);
+    }
+
+    public XmlSchemaAttributeGroup findAttributeGroup(QName qn) {
+        return qn == null ? null : lazy ? lookup(attributeGroups, qn, XmlSchema::getAttributeGroups, "attributeGroup") : attributeGroups.get(qn);
+    }
+
+    public XmlSchemaAttribute findAttribute(QName qn) {
         if (qn == null) return null;
-        for (XmlSchema s : coll.getXmlSchemas()) {
-            if (s == null) continue;
-            XmlSchemaElement e = s.getElementByName(qn);
-            if (e != null) return e;
+        for (XmlSchema s : schemas) {
+            XmlSchemaAttribute a = s == null ? null : s.getAttributes().get(qn);
+            if (a != null) return a;
         }
         return null;
     }
 
-    public XmlSchemaGroup findGroup(QName qn) {
-        if (qn == null) return null;
-        for (XmlSchema s : coll.getXmlSchemas()) {
+    /**
+     * Duplicate or conflicting global definitions found while indexing (first definition wins); with
+     * --include-path only those of the definitions used.
+     */
+    public List<String> warnings() { return warnings; }
+
+    private void index() {
+        for (XmlSchema s : schemas) {
             if (s == null) continue;
-            Map<QName, XmlSchemaGroup> groups = s.getGroups();
-            if (groups != null) {
-                XmlSchemaGroup g = groups.get(qn);
-                if (g != null) return g;
+            if (!lazy) put(types, s.getSchemaTypes(), "type", s);
+            put(elements, s.getElements(), "element", s);
+            if (lazy) continue;
+            put(groups, s.getGroups(), "group", s);
+            put(attributeGroups, s.getAttributeGroups(), "attributeGroup", s);
+        }
+    }
+
+    // Same result as the eager tables: the first definition in document order wins
+    private <T extends XmlSchemaObject> T lookup(Map<QName, T> table, QName qn, Function<XmlSchema, Map<QName, T>> defs, String kind) {
+        if (!table.containsKey(qn)) {
+            table.put(qn, null); // also remembers misses
+            for (XmlSchema s : schemas) {
+                Map<QName, T> d = s == null ? null : defs.apply(s);
+                T def = d == null ? null : d.get(qn);
+                if (def != null) put(table, Map.of(qn, def), kind, s);
             }
         }
-        return null;
+        return table.get(qn);
     }
 
-    public XmlSchemaAttributeGroup findAttributeGroup(QName qn) {
-        if (qn == null) return null;
-        for (XmlSchema s : coll.getXmlSchemas()) {
-            if (s == null) continue;
-            Map<QName, XmlSchemaAttributeGroup> ags = s.getAttributeGroups();
-            if (ags != null) {
-                XmlSchemaAttributeGroup g = ags.get(qn);
-                if (g != null) return g;
+    private <T extends XmlSchemaObject> void put(Map<QName, T> table, Map<QName, T> defs, String kind, XmlSchema s) {
+        if (defs == null) return;
+        for (Map.Entry<QName, T> e : defs.entrySet()) {
+            if (e.getValue() == null) continue;
+            T prev = table.putIfAbsent(e.getKey(), e.getValue());
+            if (prev != null && prev != e.getValue()) {
+                warnings.add("Duplicate " + kind + " " + e.getKey() + " in " + source(s)
+                        + " (keeping the one from " + source(origins.get(prev)) + ")");
+            } else if (prev == null) {
+                origins.put(e.getValue(), s);
             }
         }
-        return null;
+    }
+
+    private static String source(XmlSchema s) {
+        return s == null || s.getSourceURI() == null ? "<unknown>" : s.getSourceURI();
     }
 }
@@ -2,247 +2,523 @@ package com.ahold.tools.xsd2avro;
 
 import org.apache.ws.commons.schema.*;
 import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class XmlSchemaJsonGen {
+    private static final String XS = "http://www.w3.org/2001/XMLSchema";
+
+    /**
+     * A generated schema. Immutable once generated, so one result can be rendered, cut with
+     * {@link #at} or fingerprinted from any number of threads.
+     */
     public static class Result {
         public final String rootName;
-        public final String jsonCompact;
-        public final String jsonPretty;
-        public Result(String rootName, String jsonCompact, String jsonPretty) {
-            this.rootName = rootName; this.jsonCompact = jsonCompact; this.jsonPretty = jsonPretty;
+        private final String namespace;
+        private final String typeNamespace;
+        private final List<Field> fields;
+        private final String rootElement;
+        private final Type self; // the record itself for a schema cut out with at(), else null
+        private final List<String> warnings;
+        Result(String rootName, String namespace, String typeNamespace, List<Field> fields, String rootElement, List<String> warnings) {
+            this(rootName, namespace, typeNamespace, fields, rootElement, null, warnings);
+        }
+        private Result(String rootName, String namespace, String typeNamespace, List<Field> fields, String rootElement, Type self,
+                       List<String> warnings) {
+            this.rootName = rootName; this.namespace = namespace; this.typeNamespace = typeNamespace; this.fields = List.copyOf(fields);
+            this.rootElement = rootElement; this.self = self; this.warnings = List.copyOf(warnings);
+        }
+
+        List<Field> fields() { return fields; }
+
+        /** Problems found while indexing the schema set (see {@link XmlSchemaJsonGen#warnings()}). */
+        public List<String> warnings() { return warnings; }
+
+        /** Local name of the XML element one datum of this schema is read from. */
+        String rootElement() { return rootElement; }
+
+        /**
+         * Record read from the content of {@link #rootElement()} itself, or null when the root
+         * element is a field of the (document) root record.
+         */
+        Type self() { return self; }
+
+        /**
+         * Schema of the record at a slash-separated path of element names from the root element,
+         * e.g. {@code Orders/Order}: one datum per occurrence of the last element.
+         */
+        public Result at(String path) {
+            String[] steps = path.replaceAll("^/+|/+$", "").split("/+");
+            List<Field> cur = fields;
+            Type rec = null;
+            for (int i = 0; i < steps.length; i++) {
+                Field f = null;
+                for (Field c : cur) {
+                    if (c.source == Field.Source.ELEMENT && steps[i].equals(c.xmlName) && (i > 0 || c.via == null)) { f = c; break; }
+                }
+                if (f == null && i == 0) {
+                    // --flatten-top: the root element's children were lifted into the root record
+                    List<Field> lifted = new ArrayList<>();
+                    for (Field c : cur) if (steps[0].equals(c.via)) lifted.add(c);
+                    if (!lifted.isEmpty()) { cur = lifted; rec = null; continue; }
+                }
+                Type t = f == null ? null : f.type;
+                while (t != null && t.items != null) t = t.items;
+                if (t == null || t.kind != Type.Kind.RECORD) {
+                    throw new IllegalArgumentException("Record path '" + path + "': '" + steps[i]
+                            + (f == null ? "' is not an element there" : "' is not a complex element"));
+                }
+                rec = t;
+                cur = t.fields();
+            }
+            if (rec == null) throw new IllegalArgumentException("Record path '" + path + "' must end at a complex element");
+            return new Result(rec.name != null ? rec.name : "Record", typeNamespace, typeNamespace, cur, steps[steps.length - 1], rec, warnings);
+        }
+
+        /** Streams the schema JSON in the requested format; nothing is rendered up front. */
+        public void writeTo(Writer out, boolean pretty) throws IOException {
+            new AvroSchemaWriter(out, pretty, typeNamespace).writeRoot(rootName, namespace, fields, self);
+            out.flush();
+        }
+
+        /** Full name of the root record. */
+        String fullName() { return namespace + "." + rootName; }
+
+        String typeNamespace() { return typeNamespace; }
+
+        /** Avro names {@link #writeTo} gives the named types (a dry run). */
+        Map<Type, String> typeNames() {
+            AvroSchemaWriter w = new AvroSchemaWriter(Writer.nullWriter(), false, typeNamespace);
+            try { w.writeRoot(rootName, namespace, fields, self); } catch (IOException e) { throw new UncheckedIOException(e); }
+            return w.names();
+        }
+
+        /** Same as {@link #writeTo} with the names of {@link #typeNames()}; {@code external} types are only referred to. */
+        void writeTo(Writer out, boolean pretty, Map<Type, String> names, Set<String> external) throws IOException {
+            new AvroSchemaWriter(out, pretty, typeNamespace, names, external).writeRoot(rootName, namespace, fields, self);
+            out.flush();
+        }
+
+        public String jsonCompact() { return render(false); }
+        public String jsonPretty()  { return render(true); }
+
+        /** Avro Parsing Canonical Form of the schema, the same with or without {@code --shared-types}. */
+        public String canonicalForm() {
+            return CanonicalForm.of(rootName, namespace, typeNamespace, fields, self, typeNames());
+        }
+
+        /** CRC-64-AVRO fingerprint of {@link #canonicalForm()}, as Avro's {@code SchemaNormalization.parsingFingerprint64}. */
+        public long fingerprint() {
+            return Digests.crc64Avro(canonicalForm().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private String render(boolean pretty) {
+            StringWriter sw = new StringWriter();
+            try { writeTo(sw, pretty); } catch (IOException e) { throw new UncheckedIOException(e); }
+            return sw.toString();
         }
     }
 
-    private final OptionsCli cli;
+    private final ConversionConfig config;
     private final XmlSchemaIndexer idx;
     private final String namespace;
+    // Per-generation conversion cache: named types by (QName, options), anonymous ones by identity
+    private final Map<Object, Type> typeCache = new HashMap<>();
+    private final String conversionKey;
+    private final ConversionStats stats;
+
+    private record TypeKey(QName name, String options) {}
+
+    // --include-path as a tree of element names from the root; a node marked all is an included
+    // element, converted completely. Elements off the tree are not walked at all
+    private static final class Include {
+        final String path;
+        final Map<String, Include> children = new LinkedHashMap<>();
+        boolean all, seen;
+
+        Include(String path) { this.path = path; }
+
+        static Include of(List<String> paths) {
+            Include root = new Include("");
+            for (String p : paths) {
+                Include n = root;
+                for (String step : p.split("/")) {
+                    String at = n.path.isEmpty() ? step : n.path + "/" + step;
+                    n = n.children.computeIfAbsent(step, k -> new Include(at));
+                }
+                n.all = true;
+            }
+            return root;
+        }
+
+        /** Fails on the first path that does not lead to an element of the schema. */
+        void check() {
+            Deque<Include> todo = new ArrayDeque<>(children.values());
+            while (!todo.isEmpty()) {
+                Include n = todo.pop();
+                if (!n.seen) {
+                    String step = n.path.substring(n.path.lastIndexOf('/') + 1);
+                    throw new IllegalArgumentException("Include path '" + n.path + "': '" + step + "' is not an element there");
+                }
+                if (!n.all) todo.addAll(n.children.values());
+            }
+        }
+    }
 
     public XmlSchemaJsonGen(OptionsCli cli) throws Exception {
-        this.cli = cli;
-        this.idx = new XmlSchemaIndexer(cli);
+        this(cli, new SchemaCache());
+    }
+
+    public XmlSchemaJsonGen(OptionsCli cli, SchemaCache cache) throws Exception {
+        this(cli, cache, new ConversionStats(cli.in.getName()));
+    }
+
+    XmlSchemaJsonGen(OptionsCli cli, SchemaCache cache, ConversionStats stats) throws Exception {
+        this(cli.in.toURI().toString(), ConversionConfig.of(cli), cache, stats);
+    }
+
+    /** Generator for the XSD at {@code rootUri}, resolved through {@code cache}. */
+    XmlSchemaJsonGen(String rootUri, ConversionConfig config, SchemaCache cache, ConversionStats stats) throws Exception {
+        this.config = config;
+        this.stats = stats;
+        this.idx = new XmlSchemaIndexer(rootUri, config, cache, stats);
         this.namespace = idx.deriveNamespace();
+        this.conversionKey = config.conversionKey();
     }
 
+    /** Problems found while indexing the schema set; conversion still proceeds. */
+    public List<String> warnings() { return idx.warnings(); }
+
+    /** Root document and its transitive includes/imports. */
+    public List<String> sourceUris() { return idx.sourceUris(); }
+
     public Result generate() {
-        XmlSchemaElement root = idx.selectRootElement();
-        String name = (cli.avroName != null && !cli.avroName.isBlank()) ? cli.avroName :
+        ConversionStats.Span span = stats.phase(ConversionStats.Phase.WALK);
+        try {
+            return walk();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * One schema per global element of the XSD (and its includes) whose name matches {@code glob},
+     * in index order. The schema set is parsed and indexed once, and named types are converted
+     * once for all of them.
+     */
+    public List<Result> generateAll(String glob) {
+        ConversionStats.Span span = stats.phase(ConversionStats.Phase.WALK);
+        try {
+            List<Result> out = new ArrayList<>();
+            for (XmlSchemaElement root : idx.globalElements(glob)) out.add(walk(root));
+            if (out.isEmpty()) throw new IllegalArgumentException("No global element matches '" + glob + "'");
+            return out;
+        } finally {
+            span.close();
+        }
+    }
+
+    private Result walk() {
+        return walk(idx.selectRootElement());
+    }
+
+    private Result walk(XmlSchemaElement root) {
+        String name = config.avroName() != null ? config.avroName() :
                 (root.getName() != null ? root.getName() : "Record");
-        String ns = (cli.namespace != null && !cli.namespace.isBlank()) ? cli.namespace : namespace;
+        String ns = config.namespace() != null ? config.namespace() : namespace;
 
         // Collect fields from root
-        List<Field> fields = elementToFields(root, new HashSet<>(), "");
+        List<Field> fields = new ArrayList<>();
+        Include include = config.includePaths().isEmpty() ? null : Include.of(config.includePaths());
+        work.clear();
+        element(root, fields, include);
+        drain();
+        if (include != null) include.check();
 
-        // Force-string coercions (case-insensitive)
-        if (cli.forceString != null && !cli.forceString.isBlank()) {
-            Set<String> force = new HashSet<>();
-            for (String s : cli.forceString.split(",")) if (!s.isBlank()) force.add(s.trim().toLowerCase());
-            fields = forceToString(fields, force);
-        }
+        // Force-string coercions (case-insensitive) and unique field names in nested records
+        fields = rewrite(fields, config.forceString());
 
-        if (cli.flattenTop) {
+        if (config.flattenTop()) {
             fields = flattenOneLevel(fields);
         }
         fields = unique(fields);
 
-        String compact = toRecordJson(name, ns, fields, false);
-        String pretty  = toRecordJson(name, ns, fields, true);
-        return new Result(name, compact, pretty);
+        String element = root.getName() != null ? root.getName() : root.getQName().getLocalPart();
+        return new Result(name, ns, namespace, fields, element, idx.warnings());
     }
 
-    private static class Field {
-        String name;
-        Type type;
-        Field(String n, Type t){ this.name=n; this.type=t; }
+    // The walk keeps its pending work on this stack instead of the call stack, so nesting depth and
+    // derivation chains cost heap, not -Xss. A step appends to the field list it was made for;
+    // steps() runs a sequence next and in order, so types are visited (and named, and cached) in
+    // the same depth-first order as a recursive descent. A step that may create a record does so
+    // last: the record's own steps must run before the step's siblings.
+    private final Deque<Runnable> work = new ArrayDeque<>();
+
+    private void steps(Runnable... seq) {
+        for (int i = seq.length - 1; i >= 0; i--) work.push(seq[i]);
     }
-    private static class Type {
-        String primitive; // "string","int","long","float","double","boolean","bytes","record","array","enum","union"
-        String logical;   // optional logical type name
-        String name;      // for record/enum
-        List<Field> fields; // for record
-        List<String> symbols; // for enum
-        Type items;       // for array
-        boolean nullable;
+
+    private void drain() {
+        while (!work.isEmpty()) work.pop().run();
     }
 
-    private List<Field> elementToFields(XmlSchemaElement elem, Set<String> seenTypes, String prefix) {
-        if (elem.getRef()!=null && elem.getRef().getTargetQName()!=null) {
+    // in: the --include-path node of the enclosing record, null when everything is kept
+    private void element(XmlSchemaElement elem, List<Field> out, Include in) {
+        while (elem.getRef()!=null && elem.getRef().getTargetQName()!=null) {
             XmlSchemaElement target = idx.findElement(elem.getRef().getTargetQName());
-            if (target != null) return elementToFields(target, seenTypes, prefix);
+            if (target == null) break;
+            elem = target;
         }
-        List<Field> res = new ArrayList<>();
         String fname = (elem.getName()!=null?elem.getName() :
                 (elem.getRef()!=null && elem.getRef().getTargetQName()!=null
                         ? elem.getRef().getTargetQName().getLocalPart() : "field"));
 
-        Type t = typeOf(elem, seenTypes, fname);
-        res.add(new Field(fname, t));
-        return res;
+        Include sub = null;
+        if (in != null) {
+            sub = in.children.get(fname);
+            if (sub == null) return; // cut off: its type is never resolved
+            sub.seen = true;
+            if (sub.all) sub = null;
+        }
+        out.add(Field.element(fname, typeOf(elem, fname, sub)));
     }
 
-    private Type typeOf(XmlSchemaElement elem, Set<String> seenTypes, String preferredName) {
+    private Type typeOf(XmlSchemaElement elem, String preferredName, Include in) {
         boolean isArray = elem.getMaxOccurs() > 1 || elem.getMaxOccurs() == Long.MAX_VALUE;
         boolean isOptional = elem.getMinOccurs() == 0;
         Type base;
-        if (elem.getSchemaType() instanceof XmlSchemaComplexType ct) {
-            base = complexToType(ct, preferredName, seenTypes);
+        if (in != null) {
+            // on the way to included elements
+            XmlSchemaType st = elem.getSchemaTypeName() != null ? idx.findType(elem.getSchemaTypeName()) : elem.getSchemaType();
+            if (!(st instanceof XmlSchemaComplexType ct)) {
+                throw new IllegalArgumentException("Include path '" + in.path + "': '" + preferredName + "' is not a complex element");
+            }
+            base = pathRecord(ct, ct.getName() != null ? ct.getName() : preferredName, in);
+        } else if (elem.getSchemaType() instanceof XmlSchemaComplexType ct) {
+            base = complexToType(ct, preferredName);
+        } else if (config.narrow() && elem.getSchemaTypeName() == null && elem.getSchemaType() instanceof XmlSchemaSimpleType st) {
+            base = simpleFromRestriction(st, preferredName);
         } else if (elem.getSchemaTypeName()!=null) {
             QName qn = elem.getSchemaTypeName();
             if ("http://www.w3.org/2001/XMLSchema".equals(qn.getNamespaceURI())) {
                 base = simpleFromQName(qn);
             } else {
                 XmlSchemaType t = idx.findType(qn);
-                if (t instanceof XmlSchemaComplexType cct) base = complexToType(cct, qn.getLocalPart(), seenTypes);
-                else if (t instanceof XmlSchemaSimpleType st) base = simpleFromRestriction(st, qn.getLocalPart());
+                if (t instanceof XmlSchemaComplexType cct) base = complexToType(cct, qn.getLocalPart());
+                else if (t instanceof XmlSchemaSimpleType st) base = namedSimple(qn, st);
                 else base = simpleFromLocal("string");
             }
         } else {
             base = simpleFromLocal("string");
         }
-        if (isArray) {
-            Type arr = new Type(); arr.primitive="array"; arr.items = unwrapNullable(base);
-            base = arr;
-        }
-        if (isOptional) base = wrapNullable(base);
+        if (isArray) base = base.nonNull().arrayOf();
+        if (isOptional) base = base.orNull();
         return base;
     }
 
-    private Type complexToType(XmlSchemaComplexType ct, String preferredName, Set<String> seenTypes) {
-        String typeName = ct.getName()!=null?ct.getName():preferredName;
-        if (typeName!=null) {
-            String key = "T:" + typeName;
-            if (seenTypes.contains(key)) { // break cycles
-                Type ref = new Type(); ref.primitive="record"; ref.name = typeName; ref.fields = new ArrayList<>(); return ref;
-            }
-            seenTypes.add(key);
-        }
+    // Returns the record at once; its fields are filled in by the steps it schedules, and defined
+    // by the first of them, which runs last
+    private Type complexToType(XmlSchemaComplexType ct, String preferredName) {
+        // Named types are converted once and then referenced; the cached record is registered
+        // before its fields are walked so recursive types resolve to it as well
+        Object key = ct.getQName()!=null ? new TypeKey(ct.getQName(), conversionKey) : ct;
+        Type cached = typeCache.get(key);
+        if (cached != null) { stats.typeCacheHits++; return cached; }
+        stats.typesVisited++;
 
-        Type rec = new Type(); rec.primitive="record"; rec.name = (preferredName!=null?preferredName:"Record");
+        Type rec = Type.record(ct.getName()!=null ? ct.getName() : (preferredName!=null?preferredName:"Record"));
+        typeCache.put(key, rec);
         List<Field> fields = new ArrayList<>();
+        work.push(() -> rec.define(fields));
 
-        // attributes
-        if (ct.getAttributes()!=null) {
-            for (Object o : ct.getAttributes()) {
-                if (o instanceof XmlSchemaAttribute a) {
-                    String fn = a.getName()!=null?a.getName():"attr";
-                    Type at = (a.getSchemaTypeName()!=null? simpleFromQName(a.getSchemaTypeName()): simpleFromLocal("string"));
-                    boolean required = a.getUse() == XmlSchemaUse.REQUIRED;
-                    if (!required || cli.nullableAttrs) at = wrapNullable(at);
-                    fields.add(new Field(fn, at));
-                } else if (o instanceof XmlSchemaAttributeGroupRef agr) {
-                    QName qn = null; try { java.lang.reflect.Method m = agr.getClass().getMethod("getRefName"); Object r = m.invoke(agr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
-                    XmlSchemaAttributeGroup g = idx.findAttributeGroup(qn);
-                    if (g != null && g.getAttributes()!=null) {
-                        for (Object a : g.getAttributes()) {
-                            if (a instanceof XmlSchemaAttribute ga) {
-                                String fn = ga.getName()!=null?ga.getName():"attr";
-                                Type at = (ga.getSchemaTypeName()!=null? simpleFromQName(ga.getSchemaTypeName()): simpleFromLocal("string"));
-                                boolean required = ga.getUse() == XmlSchemaUse.REQUIRED;
-                                if (!required || cli.nullableAttrs) at = wrapNullable(at);
-                                fields.add(new Field(fn, at));
-                            }
-                        }
-                    }
-                }
-            }
-        }
+        attributes(ct.getAttributes(), fields);
 
         // content model
         XmlSchemaContentModel content = ct.getContentModel();
         if (content instanceof XmlSchemaComplexContent cc) {
-            if (cc.getContent() instanceof XmlSchemaComplexContentExtension ext) {
-                // 1) Merge base type fields (headers often live here)
-                QName bqn = ext.getBaseTypeName();
-                XmlSchemaType bt = idx.findType(bqn);
-                if (bt instanceof XmlSchemaComplexType bct) fields.addAll(harvestFromComplex(bct, seenTypes));
-                // 2) Extension particle
-                if (ext.getParticle() != null) fields.addAll(particleToFields(ext.getParticle(), seenTypes));
-                // 3) Extension-level attributes and attributeGroup refs
-                if (ext.getAttributes()!=null) {
-                    for (Object o : ext.getAttributes()) {
-                        if (o instanceof XmlSchemaAttribute a) {
-                            String fn = a.getName()!=null?a.getName():"attr";
-                            Type at = (a.getSchemaTypeName()!=null? simpleFromQName(a.getSchemaTypeName()): simpleFromLocal("string"));
-                            boolean required = a.getUse() == XmlSchemaUse.REQUIRED;
-                            if (!required || cli.nullableAttrs) at = wrapNullable(at);
-                            fields.add(new Field(fn, at));
-                        } else if (o instanceof XmlSchemaAttributeGroupRef agr) {
-                            QName qn = null;
-                            try { java.lang.reflect.Method m = agr.getClass().getMethod("getRefName"); Object r = m.invoke(agr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
-                            XmlSchemaAttributeGroup g = idx.findAttributeGroup(qn);
-                            if (g != null && g.getAttributes()!=null) {
-                                for (Object a2 : g.getAttributes()) {
-                                    if (a2 instanceof XmlSchemaAttribute ga) {
-                                        String fn2 = ga.getName()!=null?ga.getName():"attr";
-                                        Type at2 = (ga.getSchemaTypeName()!=null? simpleFromQName(ga.getSchemaTypeName()): simpleFromLocal("string"));
-                                        boolean required2 = ga.getUse() == XmlSchemaUse.REQUIRED;
-                                        if (!required2 || cli.nullableAttrs) at2 = wrapNullable(at2);
-                                        fields.add(new Field(fn2, at2));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            } else if (cc.getContent() instanceof XmlSchemaComplexContentRestriction res) {
-                QName bqn = res.getBaseTypeName();
-                XmlSchemaType bt = idx.findType(bqn);
-                if (bt instanceof XmlSchemaComplexType bct) fields.addAll(harvestFromComplex(bct, seenTypes));
-                if (res.getParticle() != null) fields.addAll(particleToFields(res.getParticle(), seenTypes));
-            }
+            derived(cc, fields, null);
         } else if (content instanceof XmlSchemaSimpleContent sc) {
-            if (sc.getContent() instanceof XmlSchemaSimpleContentExtension ext) {
-                Type base = simpleFromQName(ext.getBaseTypeName());
-                fields.add(new Field("value", base));
-            } else if (sc.getContent() instanceof XmlSchemaSimpleContentRestriction res) {
-                Type base = simpleFromQName(res.getBaseTypeName());
-                fields.add(new Field("value", base));
-            }
+            simpleContent(sc, fields);
         } else {
-            if (ct.getParticle() != null) fields.addAll(particleToFields(ct.getParticle(), seenTypes));
+            if (ct.getParticle() != null) particle(ct.getParticle(), fields, null);
         }
+        return rec;
+    }
 
-        rec.fields = fields;
+    // --include-path: a record on the way to included elements, with only the child elements that
+    // lead to them (no attributes or text). Not cached: other uses of the type keep all their fields
+    private Type pathRecord(XmlSchemaComplexType ct, String name, Include in) {
+        stats.typesVisited++;
+        Type rec = Type.record(name);
+        List<Field> fields = new ArrayList<>();
+        work.push(() -> rec.define(fields));
+        if (ct.getContentModel() instanceof XmlSchemaComplexContent cc) derived(cc, fields, in);
+        else if (ct.getContentModel() == null && ct.getParticle() != null) particle(ct.getParticle(), fields, in);
         return rec;
     }
 
-    private List<Field> particleToFields(XmlSchemaParticle p, Set<String> seenTypes) {
-        List<Field> out = new ArrayList<>();
-        if (p instanceof XmlSchemaSequence seq) {
-            for (Object o : seq.getItems()) {
-                if (o instanceof XmlSchemaElement el) out.addAll(elementToFields(el, seenTypes, ""));
-                else if (o instanceof XmlSchemaChoice ch) out.add(new Field("choice", simpleFromLocal("string")));
-                else if (o instanceof XmlSchemaGroupRef gr) {
-                    QName qn = null; try { java.lang.reflect.Method m = gr.getClass().getMethod("getRefName"); Object r = m.invoke(gr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
-                    XmlSchemaGroup g = idx.findGroup(qn);
-                    if (g!=null && g.getParticle()!=null) out.addAll(particleToFields(g.getParticle(), seenTypes));
-                } else if (o instanceof XmlSchemaAny) {
-                    out.add(new Field("any", simpleFromLocal("string")));
+    private void attributes(List<XmlSchemaAttributeOrGroupRef> attrs, List<Field> out) {
+        if (attrs == null) return;
+        for (Object o : attrs) {
+            if (o instanceof XmlSchemaAttribute a) {
+                out.add(attribute(a));
+            } else if (o instanceof XmlSchemaAttributeGroupRef agr) {
+                QName qn = null;
+                try { java.lang.reflect.Method m = agr.getClass().getMethod("getRefName"); Object r = m.invoke(agr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
+                XmlSchemaAttributeGroup g = idx.findAttributeGroup(qn);
+                if (g != null && g.getAttributes()!=null) {
+                    for (Object a : g.getAttributes()) {
+                        if (a instanceof XmlSchemaAttribute ga) out.add(attribute(ga));
+                    }
                 }
             }
+        }
+    }
+
+    private Field attribute(XmlSchemaAttribute a) {
+        String fn = a.getName()!=null?a.getName():"attr";
+        Type at = (a.getSchemaTypeName()!=null? simpleByName(a.getSchemaTypeName()): simpleFromLocal("string"));
+        boolean required = a.getUse() == XmlSchemaUse.REQUIRED;
+        if (!required || config.nullableAttrs()) at = at.orNull();
+        return Field.attribute(fn, at);
+    }
+
+    // Extension: base type fields (headers often live here), then the extension's particle and its
+    // attributes. Restriction: base type fields, then its particle
+    private void derived(XmlSchemaComplexContent cc, List<Field> out, Include in) {
+        if (cc.getContent() instanceof XmlSchemaComplexContentExtension ext) {
+            steps(() -> harvest(idx.findType(ext.getBaseTypeName()), out, in),
+                  () -> { if (ext.getParticle() != null) particle(ext.getParticle(), out, in); },
+                  () -> { if (in == null) attributes(ext.getAttributes(), out); });
+        } else if (cc.getContent() instanceof XmlSchemaComplexContentRestriction res) {
+            steps(() -> harvest(idx.findType(res.getBaseTypeName()), out, in),
+                  () -> { if (res.getParticle() != null) particle(res.getParticle(), out, in); });
+        }
+    }
+
+    private void simpleContent(XmlSchemaSimpleContent sc, List<Field> out) {
+        if (sc.getContent() instanceof XmlSchemaSimpleContentExtension ext) {
+            out.add(Field.text("value", simpleByName(ext.getBaseTypeName())));
+        } else if (sc.getContent() instanceof XmlSchemaSimpleContentRestriction res) {
+            out.add(Field.text("value", simpleByName(res.getBaseTypeName())));
+        }
+    }
+
+    // Every item is its own step, so an element's record is complete before its next sibling
+    private void particle(XmlSchemaParticle p, List<Field> out, Include in) {
+        if (p instanceof XmlSchemaSequence seq) {
+            List<XmlSchemaSequenceMember> items = seq.getItems();
+            for (int i = items.size() - 1; i >= 0; i--) {
+                XmlSchemaSequenceMember o = items.get(i);
+                if (o instanceof XmlSchemaElement el) work.push(() -> element(el, out, in));
+                else if (o instanceof XmlSchemaChoice ch) work.push(() -> choice(ch, out, in));
+                else if (o instanceof XmlSchemaGroupRef gr) work.push(() -> group(gr, out, in));
+                else if (o instanceof XmlSchemaAny && in == null) work.push(() -> out.add(new Field("any", simpleFromLocal("string"))));
+            }
         } else if (p instanceof XmlSchemaAll all) {
-            for (Object o : all.getItems()) {
-                if (o instanceof XmlSchemaElement el) out.addAll(elementToFields(el, seenTypes, ""));
+            List<XmlSchemaAllMember> items = all.getItems();
+            for (int i = items.size() - 1; i >= 0; i--) {
+                if (items.get(i) instanceof XmlSchemaElement el) work.push(() -> element(el, out, in));
             }
         } else if (p instanceof XmlSchemaChoice ch) {
-            out.add(new Field("choice", simpleFromLocal("string")));
+            choice(ch, out, in);
         } else if (p instanceof XmlSchemaGroupRef gr) {
-            QName qn = null; try { java.lang.reflect.Method m = gr.getClass().getMethod("getRefName"); Object r = m.invoke(gr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
-            XmlSchemaGroup g = idx.findGroup(qn);
-            if (g!=null && g.getParticle()!=null) out.addAll(particleToFields(g.getParticle(), seenTypes));
+            group(gr, out, in);
+        } else if (p instanceof XmlSchemaElement el) {
+            element(el, out, in);
         }
-        return out;
     }
 
-    private Type unwrapNullable(Type t) {
-        if (t!=null && "union".equals(t.primitive) && t.items!=null) return t.items;
-        return t;
+    private void group(XmlSchemaGroupRef gr, List<Field> out, Include in) {
+        XmlSchemaGroup g = idx.findGroup(gr.getRefName());
+        if (g!=null && g.getParticle()!=null) particle(g.getParticle(), out, in);
     }
-    private Type wrapNullable(Type t) {
-        Type u = new Type(); u.primitive="union"; u.items = t; u.nullable = true; return u;
+
+    // --choice union: one "choice" field, a union of one record per alternative (null first when the
+    // choice is optional, an array when it repeats). flat: every alternative's fields, nullable.
+    // string: the chosen content as XML text, as before unions
+    private void choice(XmlSchemaChoice ch, List<Field> out, Include in) {
+        if ("string".equals(config.choice())) {
+            if (in == null) out.add(new Field("choice", simpleFromLocal("string")));
+            return;
+        }
+        List<XmlSchemaParticle> alts = new ArrayList<>();
+        for (XmlSchemaChoiceMember m : ch.getItems()) {
+            if (m instanceof XmlSchemaParticle alt && !(alt instanceof XmlSchemaAny)) alts.add(alt);
+        }
+        List<List<Field>> altFields = new ArrayList<>();
+        Runnable[] seq = new Runnable[alts.size() + 1];
+        for (int i = 0; i < alts.size(); i++) {
+            XmlSchemaParticle alt = alts.get(i);
+            List<Field> fields = new ArrayList<>();
+            altFields.add(fields);
+            seq[i] = () -> particle(alt, fields, in);
+        }
+        seq[alts.size()] = () -> choiceFields(ch, alts, altFields, out, in);
+        steps(seq);
+    }
+
+    // Once every alternative is walked
+    private void choiceFields(XmlSchemaChoice ch, List<XmlSchemaParticle> alts, List<List<Field>> altFields, List<Field> out, Include in) {
+        boolean repeated = ch.getMaxOccurs() > 1, optional = ch.getMinOccurs() == 0;
+        List<Type> branches = new ArrayList<>();
+        for (int i = 0; i < alts.size(); i++) {
+            XmlSchemaParticle alt = alts.get(i);
+            List<Field> fields = altFields.get(i);
+            if ("flat".equals(config.choice())) {
+                for (Field f : fields) {
+                    Type t = f.type;
+                    boolean array = t.nonNull().kind == Type.Kind.ARRAY;
+                    if (repeated && !array) {
+                        t = t.nonNull().arrayOf();
+                    } else if (!array && !(t.kind == Type.Kind.UNION && t.nullable)) {
+                        t = t.orNull();
+                    }
+                    out.add(f.with(f.name, t));
+                }
+            } else if (!fields.isEmpty()) {
+                String name = alt instanceof XmlSchemaElement el ? elementName(el) + "Option"
+                        : alt instanceof XmlSchemaGroupRef gr && gr.getRefName() != null ? gr.getRefName().getLocalPart() + "Option"
+                        : "Option" + (branches.size() + 1);
+                branches.add(Type.record(name, fields));
+            }
+        }
+        if ("flat".equals(config.choice()) || branches.isEmpty()) return;
+        if (in != null && branches.size() < alts.size()) optional = true; // the chosen alternative may be cut off
+        Type t;
+        if (repeated) {
+            t = Type.union(branches, false).arrayOf();
+            if (optional) t = t.orNull();
+        } else {
+            t = Type.union(branches, optional);
+        }
+        out.add(Field.choice(t));
+    }
+
+    private static String elementName(XmlSchemaElement el) {
+        if (el.getName() != null) return el.getName();
+        return el.getRef() != null && el.getRef().getTargetQName() != null ? el.getRef().getTargetQName().getLocalPart() : "Element";
+    }
+
+
+    private Type namedSimple(QName qn, XmlSchemaSimpleType st) {
+        TypeKey key = new TypeKey(qn, conversionKey);
+        Type cached = typeCache.get(key);
+        if (cached != null) { stats.typeCacheHits++; return cached; }
+        stats.typesVisited++;
+        Type t = simpleFromRestriction(st, qn.getLocalPart());
+        // Only named Avro types (enums, fixed) are cached; primitives are flyweights anyway
+        if (t.kind == Type.Kind.ENUM || t.kind == Type.Kind.FIXED) typeCache.put(key, t);
+        return t;
     }
 
     private Type simpleFromRestriction(XmlSchemaSimpleType st, String preferredName) {
+        if (config.narrow()) return narrowed(st, preferredName);
         XmlSchemaSimpleTypeContent c = st.getContent();
         if (c instanceof XmlSchemaSimpleTypeRestriction res) {
             List<String> symbols = new ArrayList<>();
@@ -255,33 +531,146 @@ public class XmlSchemaJsonGen {
                 }
             }
             if (!symbols.isEmpty()) {
-                Type e = new Type(); e.primitive="enum"; e.name = (preferredName!=null?preferredName:"Enum"); e.symbols = symbols; return e;
+                return Type.enumOf(preferredName!=null?preferredName:"Enum", symbols);
             }
             QName base = res.getBaseTypeName();
-            if (base!=null && "http://www.w3.org/2001/XMLSchema".equals(base.getNamespaceURI())) return simpleFromQName(base);
+            if (base!=null && "http://www.w3.org/2001/XMLSchema".equals(base.getNamespaceURI())) {
+                if (config.logicalTypes() && "decimal".equals(base.getLocalPart())) {
+                    Type d = decimalFromFacets(res.getFacets());
+                    if (d != null) return d;
+                }
+                return simpleFromQName(base);
+            }
         }
         return simpleFromLocal("string");
     }
 
+    // bytes/decimal when totalDigits bounds the precision; Avro decimals need one. The first facet of a kind wins
+    private Type decimalFromFacets(List<XmlSchemaFacet> facets) {
+        int precision = 0, scale = -1;
+        for (XmlSchemaFacet f : facets) {
+            try {
+                if (f instanceof XmlSchemaTotalDigitsFacet && precision == 0) precision = Integer.parseInt(String.valueOf(f.getValue()).trim());
+                else if (f instanceof XmlSchemaFractionDigitsFacet && scale < 0) scale = Integer.parseInt(String.valueOf(f.getValue()).trim());
+            } catch (NumberFormatException ignore) {}
+        }
+        scale = Math.max(scale, 0);
+        if (precision < 1) return null;
+        return Type.decimal(precision, Math.min(scale, precision));
+    }
+
+    // --narrow: follows restrictions of named simple types down to the built-in. The nearest
+    // enumeration becomes an enum; integer ranges that fit become int, constant-length binary fixed
+    private Type narrowed(XmlSchemaSimpleType st, String preferredName) {
+        List<XmlSchemaFacet> facets = new ArrayList<>(); // nearest restriction first
+        List<String> symbols = null;
+        QName builtin = null;
+        XmlSchemaSimpleType cur = st;
+        for (int hops = 0; cur != null && hops < 64; hops++) {
+            if (!(cur.getContent() instanceof XmlSchemaSimpleTypeRestriction res)) break; // list, union
+            List<String> own = new ArrayList<>();
+            for (XmlSchemaFacet f : res.getFacets()) {
+                if (f instanceof XmlSchemaEnumerationFacet ev) {
+                    String sym = String.valueOf(ev.getValue()).toUpperCase().replaceAll("[^A-Z0-9_]", "_");
+                    if (!own.contains(sym.isEmpty() ? "_" : sym)) own.add(sym.isEmpty() ? "_" : sym);
+                }
+            }
+            if (symbols == null && !own.isEmpty()) symbols = own;
+            facets.addAll(res.getFacets());
+            QName base = res.getBaseTypeName();
+            if (base != null && XS.equals(base.getNamespaceURI())) { builtin = base; break; }
+            cur = base != null ? (idx.findType(base) instanceof XmlSchemaSimpleType named ? named : null) : res.getBaseType();
+        }
+        if (symbols != null) {
+            return Type.enumOf(preferredName!=null?preferredName:"Enum", symbols);
+        }
+        if (builtin == null) return simpleFromLocal("string");
+        if (config.logicalTypes() && "decimal".equals(builtin.getLocalPart())) {
+            Type d = decimalFromFacets(facets);
+            if (d != null) return d;
+        }
+        Type t = simpleFromLocal(builtin.getLocalPart());
+        if (t.kind == Type.Kind.LONG && t.logical == null && fitsInt(builtin.getLocalPart(), facets)) {
+            t = Type.primitive(Type.Kind.INT, null, t.xsd);
+        } else if (t.kind == Type.Kind.BYTES && t.logical == null) {
+            Integer len = null;
+            for (XmlSchemaFacet f : facets) {
+                if (f instanceof XmlSchemaLengthFacet && len == null) {
+                    try { len = Integer.valueOf(String.valueOf(f.getValue()).trim()); } catch (NumberFormatException ignore) {}
+                }
+            }
+            if (len != null) t = Type.fixed(preferredName != null ? preferredName : "Fixed", len, t.xsd);
+        }
+        return t;
+    }
+
+    // Value range of an integer built-in, cut by every range and totalDigits facet of the chain
+    private static boolean fitsInt(String xsd, List<XmlSchemaFacet> facets) {
+        BigDecimal lo = switch (xsd) {
+            case "long" -> BigDecimal.valueOf(Long.MIN_VALUE);
+            case "nonNegativeInteger", "unsignedInt" -> BigDecimal.ZERO;
+            case "positiveInteger" -> BigDecimal.ONE;
+            default -> null;
+        };
+        BigDecimal hi = switch (xsd) {
+            case "long" -> BigDecimal.valueOf(Long.MAX_VALUE);
+            case "unsignedInt" -> BigDecimal.valueOf(4294967295L);
+            case "nonPositiveInteger" -> BigDecimal.ZERO;
+            case "negativeInteger" -> BigDecimal.ONE.negate();
+            default -> null;
+        };
+        for (XmlSchemaFacet f : facets) {
+            BigDecimal v;
+            try { v = new BigDecimal(String.valueOf(f.getValue()).trim()); } catch (NumberFormatException e) { continue; }
+            if (f instanceof XmlSchemaMinInclusiveFacet || f instanceof XmlSchemaMinExclusiveFacet) {
+                if (lo == null || v.compareTo(lo) > 0) lo = v;
+            } else if (f instanceof XmlSchemaMaxInclusiveFacet || f instanceof XmlSchemaMaxExclusiveFacet) {
+                if (hi == null || v.compareTo(hi) < 0) hi = v;
+            } else if (f instanceof XmlSchemaTotalDigitsFacet) {
+                BigDecimal max = BigDecimal.TEN.pow(Math.min(v.intValue(), 40)).subtract(BigDecimal.ONE);
+                if (hi == null || max.compareTo(hi) < 0) hi = max;
+                if (lo == null || max.negate().compareTo(lo) > 0) lo = max.negate();
+            }
+        }
+        return lo != null && hi != null
+                && lo.compareTo(BigDecimal.valueOf(Integer.MIN_VALUE)) >= 0 && hi.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) <= 0;
+    }
+
+    // Type of an attribute or simple content by type name; with --narrow named simple types are resolved
+    private Type simpleByName(QName qn) {
+        if (config.narrow() && qn != null && !XS.equals(qn.getNamespaceURI()) && idx.findType(qn) instanceof XmlSchemaSimpleType st) {
+            return namedSimple(qn, st);
+        }
+        return simpleFromQName(qn);
+    }
+
     private Type simpleFromQName(QName qn) {
         if (qn==null) return simpleFromLocal("string");
         return simpleFromLocal(qn.getLocalPart());
     }
     private Type simpleFromLocal(String local) {
-        Type t = new Type();
-        switch (local) {
-            case "string","normalizedString","token","anyURI","QName" -> t.primitive="string";
-            case "boolean" -> t.primitive="boolean";
-            case "float" -> t.primitive="float";
-            case "double" -> t.primitive="double";
-            case "decimal" -> t.primitive="string";
-            case "integer","nonNegativeInteger","positiveInteger","nonPositiveInteger","negativeInteger","long","unsignedInt" -> t.primitive="long";
-            case "int","short","byte","unsignedShort","unsignedByte" -> t.primitive="int";
-            case "base64Binary","hexBinary" -> t.primitive="bytes";
-            case "date","time","dateTime" -> t.primitive="string";
-            default -> t.primitive="string";
+        Type.Kind kind = switch (local) {
+            case "string","normalizedString","token","anyURI","QName" -> Type.Kind.STRING;
+            case "boolean" -> Type.Kind.BOOLEAN;
+            case "float" -> Type.Kind.FLOAT;
+            case "double" -> Type.Kind.DOUBLE;
+            case "decimal" -> Type.Kind.STRING;
+            case "integer","nonNegativeInteger","positiveInteger","nonPositiveInteger","negativeInteger","long","unsignedInt" -> Type.Kind.LONG;
+            case "int","short","byte","unsignedShort","unsignedByte" -> Type.Kind.INT;
+            case "base64Binary","hexBinary" -> Type.Kind.BYTES;
+            case "date","time","dateTime" -> Type.Kind.STRING;
+            default -> null;
+        };
+        if (kind == null) return Type.primitive(Type.Kind.STRING, null, "string"); // not a built-in
+        if (config.logicalTypes()) {
+            switch (local) {
+                case "date" -> { return Type.primitive(Type.Kind.INT, "date", local); }
+                case "time" -> { return Type.primitive(Type.Kind.INT, "time-millis", local); }
+                case "dateTime" -> { return Type.primitive(Type.Kind.LONG, "timestamp-" + config.timestampPrecision(), local); }
+                default -> { }
+            }
         }
-        return t;
+        return Type.primitive(kind, null, local);
     }
 
     private List<Field> unique(List<Field> in) {
@@ -294,186 +683,140 @@ public class XmlSchemaJsonGen {
                 int i = seen.get(n)+1; String nn = n+"_"+i;
                 while (seen.containsKey(nn)) { i++; nn = n+"_"+i; }
                 seen.put(n,i); seen.put(nn,0);
-                out.add(new Field(nn, f.type));
+                out.add(f.with(nn, f.type));
             }
         }
         return out;
     }
 
-    private List<Field> forceToString(List<Field> fields, Set<String> targetsLower) {
-        List<Field> out = new ArrayList<>();
+    // Force-string coercions and unique field names, for every record reachable from the root. The
+    // model is not changed: records with a field to coerce or rename, and the records that lead to
+    // them, are copied; all other types (the type cache's too) are shared with the result. Copies
+    // are memoized so shared and recursive named types stay shared. The root's own fields are only
+    // coerced here, they are made unique after --flatten-top
+    private List<Field> rewrite(List<Field> fields, Set<String> targetsLower) {
+        Set<Type> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<Type, List<Type>> users = new IdentityHashMap<>(); // record -> records with a field of its type
+        Deque<Type> todo = new ArrayDeque<>();
+        for (Field f : fields) if (!coerced(f, targetsLower)) records(f.type, null, users, todo);
+        while (!todo.isEmpty()) {
+            Type rec = todo.pop();
+            if (duplicates(rec.fields())) changed.add(rec);
+            for (Field f : rec.fields()) {
+                if (coerced(f, targetsLower)) changed.add(rec);
+                else records(f.type, rec, users, todo);
+            }
+        }
+        Deque<Type> up = new ArrayDeque<>(changed);
+        while (!up.isEmpty()) {
+            for (Type user : users.get(up.pop())) if (user != null && changed.add(user)) up.push(user);
+        }
+        Map<Type, Type> copies = new IdentityHashMap<>();
+        work.clear();
+        List<Field> out = rewriteFields(fields, targetsLower, changed, copies);
+        drain();
+        return out;
+    }
+
+    private static boolean coerced(Field f, Set<String> targetsLower) {
+        return !targetsLower.isEmpty() && (f.type == null || f.type.kind != Type.Kind.RECORD) && targetsLower.contains(f.name.toLowerCase());
+    }
+
+    // Names are interned; records are small, so pairwise beats hashing
+    private static boolean duplicates(List<Field> fields) {
+        if (fields.size() > 32) return new HashSet<>(fields.stream().map(f -> f.name).toList()).size() < fields.size();
+        for (int i = 1; i < fields.size(); i++) {
+            for (int j = 0; j < i; j++) if (fields.get(i).name == fields.get(j).name) return true;
+        }
+        return false;
+    }
+
+    // The records a field type refers to, through its array/union wrappers; unseen ones are queued
+    private static void records(Type t, Type user, Map<Type, List<Type>> users, Deque<Type> todo) {
+        if (t == null) return;
+        if (t.items != null) { records(t.items, user, users, todo); return; }
+        if (t.branches != null) { for (Type b : t.branches) records(b, user, users, todo); return; }
+        if (t.kind != Type.Kind.RECORD) return;
+        List<Type> u = users.get(t);
+        if (u == null) { users.put(t, u = new ArrayList<>()); todo.push(t); }
+        u.add(user);
+    }
+
+    private List<Field> rewriteFields(List<Field> fields, Set<String> targetsLower, Set<Type> changed, Map<Type, Type> copies) {
+        List<Field> out = new ArrayList<>(fields.size());
         for (Field f : fields) {
-            if (f.type!=null && "record".equals(f.type.primitive) && f.type.fields!=null) {
-                Field nf = new Field(f.name, f.type);
-                nf.type = new Type();
-                nf.type.primitive = "record";
-                nf.type.name = f.type.name;
-                nf.type.fields = forceToString(f.type.fields, targetsLower);
-                out.add(nf);
-            } else {
-                if (targetsLower.contains(f.name.toLowerCase())) {
-                    Field nf = new Field(f.name, simpleFromLocal("string"));
-                    out.add(nf);
+            if (coerced(f, targetsLower)) {
+                Type str = simpleFromLocal("string");
+                if (f.source == Field.Source.CHOICE) {
+                    out.add(new Field(f.name, str)); // the chosen content as XML
                 } else {
-                    out.add(f);
+                    // A field that may be absent (optional, or an array of maybe none) stays nullable
+                    boolean optional = f.type != null && (f.type.nullable || f.type.kind == Type.Kind.ARRAY);
+                    out.add(f.with(f.name, optional ? str.orNull() : str));
                 }
+            } else {
+                out.add(f.with(f.name, rewriteType(f.type, targetsLower, changed, copies)));
             }
         }
         return out;
     }
 
+    // Recurses only through the array/union wrappers of one field type. A record's copy is created
+    // (and memoized) at once, its fields are rewritten by a later step
+    private Type rewriteType(Type t, Set<String> targetsLower, Set<Type> changed, Map<Type, Type> copies) {
+        if (t == null) return null;
+        if (t.kind == Type.Kind.RECORD) {
+            if (!changed.contains(t)) return t;
+            Type done = copies.get(t);
+            if (done != null) return done;
+            Type nt = Type.record(t.name);
+            copies.put(t, nt);
+            work.push(() -> nt.define(unique(rewriteFields(t.fields(), targetsLower, changed, copies))));
+            return nt;
+        }
+        if (t.branches != null) {
+            List<Type> branches = new ArrayList<>();
+            boolean same = true;
+            for (Type b : t.branches) {
+                Type nb = rewriteType(b, targetsLower, changed, copies);
+                branches.add(nb);
+                same &= nb == b;
+            }
+            return same ? t : Type.union(branches, t.nullable);
+        }
+        if (t.items != null) {
+            Type inner = rewriteType(t.items, targetsLower, changed, copies);
+            if (inner == t.items) return t;
+            return t.kind == Type.Kind.ARRAY ? inner.arrayOf() : inner.orNull();
+        }
+        return t;
+    }
+
     private List<Field> flattenOneLevel(List<Field> fields) {
         List<Field> out = new ArrayList<>();
         for (Field f : fields) {
-            if (f.type!=null && "record".equals(f.type.primitive) && f.type.fields!=null && !f.type.fields.isEmpty()) {
+            if (f.type!=null && f.type.kind == Type.Kind.RECORD && !f.type.fields().isEmpty()) {
                 String prefix = Character.toLowerCase(f.name.charAt(0)) + f.name.substring(1);
-                for (Field sf : f.type.fields) {
+                for (Field sf : f.type.fields()) {
                     String nn = prefix + Character.toUpperCase(sf.name.charAt(0)) + sf.name.substring(1);
-                    out.add(new Field(nn, sf.type));
+                    out.add(sf.lifted(nn, f.xmlName));
                 }
             } else out.add(f);
         }
         return out;
     }
 
-    private String toRecordJson(String name, String ns, List<Field> fields, boolean pretty) {
-        StringBuilder sb = new StringBuilder();
-        String ind = pretty ? "  " : "";
-        String nl  = pretty ? "\n" : "";
-        sb.append("{").append(nl);
-        sb.append(ind).append("\"type\": \"record\",").append(nl);
-        sb.append(ind).append("\"name\": \"").append(escape(name)).append("\",").append(nl);
-        sb.append(ind).append("\"namespace\": \"").append(escape(ns)).append("\",").append(nl);
-        sb.append(ind).append("\"fields\": [").append(nl);
-        for (int i=0;i<fields.size();i++) {
-            Field f = fields.get(i);
-            sb.append(ind).append(ind).append("{").append(nl);
-            sb.append(ind).append(ind).append(ind).append("\"name\": \"").append(escape(f.name)).append("\",").append(nl);
-            sb.append(ind).append(ind).append(ind).append("\"type\": ").append(typeJson(f.type, pretty, ind)).append(nl);
-            sb.append(ind).append(ind).append("}");
-            if (i<fields.size()-1) sb.append(",");
-            sb.append(nl);
-        }
-        sb.append(ind).append("]").append(nl);
-        sb.append("}");
-        return sb.toString();
-    }
-
-    private String typeJson(Type t, boolean pretty, String ind) {
-        if (t==null) return "\"string\"";
-        if ("array".equals(t.primitive)) {
-            return "{\"type\":\"array\",\"items\":" + typeJson(t.items, pretty, ind) + "}";
-        }
-        if ("union".equals(t.primitive) && t.nullable) {
-            return "[\"null\"," + typeJson(t.items, pretty, ind) + "]";
-        }
-        if ("record".equals(t.primitive)) {
-            List<Field> flds = t.fields!=null? unique(t.fields) : List.of();
-            return toRecordJson(t.name!=null?t.name:"Record", (this.namespace!=null?this.namespace:"xsd2avro.generated"), flds, pretty);
-        }
-        if ("enum".equals(t.primitive)) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("{\"type\":\"enum\",\"name\":\"").append(escape(t.name!=null?t.name:"Enum")).append("\",\"symbols\":[");
-            for (int i=0;i<(t.symbols!=null?t.symbols.size():0);i++) {
-                if (i>0) sb.append(",");
-                sb.append("\"").append(escape(t.symbols.get(i))).append("\"");
-            }
-            sb.append("]}");
-            return sb.toString();
-        }
-        return "\""+t.primitive+"\"";
-    }
-
-    private static String escape(String s) {
-        if (s==null) return "";
-        return s.replace("\\","\\\\").replace("\"","\\\"");
-    }
-
-
-    // Pull fields/attributes recursively from a complexType (used for base types in extensions)
-    private List<Field> harvestFromComplex(XmlSchemaComplexType ct, Set<String> seenTypes) {
-        List<Field> fields = new ArrayList<>();
+    // Fields/attributes of a base type of an extension or restriction, down its own derivation chain
+    private void harvest(XmlSchemaType bt, List<Field> out, Include in) {
+        if (!(bt instanceof XmlSchemaComplexType ct)) return;
         // attributes on the base type
-        if (ct.getAttributes()!=null) {
-            for (Object o : ct.getAttributes()) {
-                if (o instanceof XmlSchemaAttribute a) {
-                    String fn = a.getName()!=null?a.getName():"attr";
-                    Type at = (a.getSchemaTypeName()!=null? simpleFromQName(a.getSchemaTypeName()): simpleFromLocal("string"));
-                    boolean required = a.getUse() == XmlSchemaUse.REQUIRED;
-                    if (!required || cli.nullableAttrs) at = wrapNullable(at);
-                    fields.add(new Field(fn, at));
-                } else if (o instanceof XmlSchemaAttributeGroupRef agr) {
-                    QName qn = null;
-                    try { java.lang.reflect.Method m = agr.getClass().getMethod("getRefName"); Object r = m.invoke(agr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
-                    XmlSchemaAttributeGroup g = idx.findAttributeGroup(qn);
-                    if (g != null && g.getAttributes()!=null) {
-                        for (Object a2 : g.getAttributes()) {
-                            if (a2 instanceof XmlSchemaAttribute ga) {
-                                String fn2 = ga.getName()!=null?ga.getName():"attr";
-                                Type at2 = (ga.getSchemaTypeName()!=null? simpleFromQName(ga.getSchemaTypeName()): simpleFromLocal("string"));
-                                boolean required2 = ga.getUse() == XmlSchemaUse.REQUIRED;
-                                if (!required2 || cli.nullableAttrs) at2 = wrapNullable(at2);
-                                fields.add(new Field(fn2, at2));
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        // particle on the base type
-        if (ct.getParticle()!=null) fields.addAll(particleToFields(ct.getParticle(), seenTypes));
-        // nested complex/simple content on the base type
-        XmlSchemaContentModel content = ct.getContentModel();
-        if (content instanceof XmlSchemaComplexContent cc) {
-            if (cc.getContent() instanceof XmlSchemaComplexContentExtension ext) {
-                // recurse into its base as well
-                QName bqn = ext.getBaseTypeName();
-                XmlSchemaType bt = idx.findType(bqn);
-                if (bt instanceof XmlSchemaComplexType bct) fields.addAll(harvestFromComplex(bct, seenTypes));
-                if (ext.getParticle()!=null) fields.addAll(particleToFields(ext.getParticle(), seenTypes));
-                // attributes defined on the extension itself
-                if (ext.getAttributes()!=null) {
-                    for (Object o : ext.getAttributes()) {
-                        if (o instanceof XmlSchemaAttribute a) {
-                            String fn = a.getName()!=null?a.getName():"attr";
-                            Type at = (a.getSchemaTypeName()!=null? simpleFromQName(a.getSchemaTypeName()): simpleFromLocal("string"));
-                            boolean required = a.getUse() == XmlSchemaUse.REQUIRED;
-                            if (!required || cli.nullableAttrs) at = wrapNullable(at);
-                            fields.add(new Field(fn, at));
-                        } else if (o instanceof XmlSchemaAttributeGroupRef agr) {
-                            QName qn = null;
-                            try { java.lang.reflect.Method m = agr.getClass().getMethod("getRefName"); Object r = m.invoke(agr); if (r instanceof QName) qn = (QName) r; } catch (Exception ignore) {}
-                            XmlSchemaAttributeGroup g = idx.findAttributeGroup(qn);
-                            if (g != null && g.getAttributes()!=null) {
-                                for (Object a2 : g.getAttributes()) {
-                                    if (a2 instanceof XmlSchemaAttribute ga) {
-                                        String fn2 = ga.getName()!=null?ga.getName():"attr";
-                                        Type at2 = (ga.getSchemaTypeName()!=null? simpleFromQName(ga.getSchemaTypeName()): simpleFromLocal("string"));
-                                        boolean required2 = ga.getUse() == XmlSchemaUse.REQUIRED;
-                                        if (!required2 || cli.nullableAttrs) at2 = wrapNullable(at2);
-                                        fields.add(new Field(fn2, at2));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            } else if (cc.getContent() instanceof XmlSchemaComplexContentRestriction res) {
-                QName bqn = res.getBaseTypeName();
-                XmlSchemaType bt = idx.findType(bqn);
-                if (bt instanceof XmlSchemaComplexType bct) fields.addAll(harvestFromComplex(bct, seenTypes));
-                if (res.getParticle()!=null) fields.addAll(particleToFields(res.getParticle(), seenTypes));
-            }
-        } else if (content instanceof XmlSchemaSimpleContent sc) {
-            if (sc.getContent() instanceof XmlSchemaSimpleContentExtension ext) {
-                Type base = simpleFromQName(ext.getBaseTypeName());
-                fields.add(new Field("value", base));
-            } else if (sc.getContent() instanceof XmlSchemaSimpleContentRestriction res) {
-                Type base = simpleFromQName(res.getBaseTypeName());
-                fields.add(new Field("value", base));
-            }
-        }
-        return fields;
+        if (in == null) attributes(ct.getAttributes(), out);
+        // particle on the base type, then its nested complex/simple content
+        steps(() -> { if (ct.getParticle()!=null) particle(ct.getParticle(), out, in); },
+              () -> {
+                  XmlSchemaContentModel content = ct.getContentModel();
+                  if (content instanceof XmlSchemaComplexContent cc) derived(cc, out, in);
+                  else if (content instanceof XmlSchemaSimpleContent sc && in == null) simpleContent(sc, out);
+              });
     }
-
-}
\ No newline at end of file
+}
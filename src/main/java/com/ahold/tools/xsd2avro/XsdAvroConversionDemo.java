@@ -1,83 +1,386 @@
 package com.ahold.tools.xsd2avro;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class XsdAvroConversionDemo {
     public static void main(String[] args) throws Exception {
         OptionsCli cli = OptionsCli.parse(args);
         if (cli.showHelp) { OptionsCli.printHelp(); return; }
+        if (cli.serve) { new ConversionServer(cli).start(); return; }
+        if (cli.genXml != null) { XmlInstanceGenerator.run(cli); return; }
         if (cli.in == null || cli.outDir == null) {
             OptionsCli.printHelp();
             throw new IllegalArgumentException("--in and --out are required");
         }
+        if (cli.sharedTypes != null && !cli.in.isDirectory()) throw new IllegalArgumentException("--shared-types needs --in to be a directory");
+        if (cli.xml != null) { XmlDataConverter.run(cli); return; }
 
+        SchemaCache cache = new SchemaCache();
+        BuildManifest manifest = cli.incremental ? BuildManifest.load(cli.outDir) : null;
+        Map<File, Converted> done;
         if (cli.in.isDirectory()) {
-            Path dir = cli.in.toPath();
-            String pattern = (cli.glob == null || cli.glob.isBlank()) ? "*.xsd" : cli.glob;
+            List<File> files = listXsds(cli);
+            if (files.isEmpty()) throw new IllegalArgumentException("No XSDs matched glob '" + glob(cli) + "' in " + cli.in);
+            done = runBatch(cli, files, Map.of(), cache, manifest);
+        } else {
+            Converted c = convertOne(cli, ConversionConfig.of(cli), cache, manifest, new Outputs(Map.of()), cli.in);
+            for (String w : c.warnings()) System.err.println("⚠ " + w);
+            if (manifest != null) manifest.save();
+            for (Output o : c.outputs()) System.out.println((c.skipped() ? "Unchanged: " : "Wrote: ") + o.file().getAbsolutePath());
+            reportStats(cli, List.of(c.stats()));
+            done = new HashMap<>(Map.of(cli.in, c));
+        }
+
+        if (cli.watch) new XsdWatcher(cli, cache, manifest).run(done);
+    }
+
+    static String glob(OptionsCli cli) {
+        return (cli.glob == null || cli.glob.isBlank()) ? "*.xsd" : cli.glob;
+    }
+
+    static List<File> listXsds(OptionsCli cli) throws IOException {
+        List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(cli.in.toPath(), glob(cli))) {
+            for (Path p : ds) if (Files.isRegularFile(p)) files.add(p.toFile());
+        }
+        return files;
+    }
+
+    /**
+     * Converts {@code files} on the worker pool and prints one line per file; returns the successes.
+     * {@code others} are the outputs of files of the run that are not converted again ({@code --watch}).
+     * Files that write the same output ({@code --out-naming root} or {@code file}) do not race for
+     * it: the last in name order wins, the others get a warning.
+     */
+    static Map<File, Converted> runBatch(OptionsCli cli, List<File> files, Map<File, List<File>> others, SchemaCache cache,
+                                         BuildManifest manifest) throws Exception {
+        // Deterministic report order; largest files are scheduled first so a huge schema doesn't finish last
+        files = new ArrayList<>(files);
+        files.sort(Comparator.comparing(File::getName));
+        List<File> schedule = new ArrayList<>(files);
+        schedule.sort(Comparator.comparingLong(File::length).reversed());
 
-            List<File> files = new ArrayList<>();
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, pattern)) {
-                for (Path p : ds) if (Files.isRegularFile(p)) files.add(p.toFile());
+        Map<File, Converted> done = new HashMap<>();
+        ConversionConfig config = ConversionConfig.of(cli);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, cli.threads));
+        Outputs outputs = new Outputs(others);
+        Map<File, Future<Converted>> jobs = new HashMap<>();
+        try {
+            if (cli.sharedTypes != null) {
+                jobs = convertShared(cli, config, files, schedule, cache, manifest, outputs, pool);
+            } else {
+                for (File xsd : schedule) jobs.put(xsd, pool.submit(() -> convertOne(cli, config, cache, manifest, outputs, xsd)));
+            }
+            for (Future<Converted> f : jobs.values()) {
+                try {
+                    f.get(); // every output has its final owner before any is reported
+                } catch (ExecutionException reported) {
+                    // below, in name order
+                }
             }
-            if (files.isEmpty()) throw new IllegalArgumentException("No XSDs matched glob '" + pattern + "' in " + dir);
 
-            int ok = 0, fail = 0;
+            int ok = 0, fail = 0, unchanged = 0;
+            List<ConversionStats> stats = new ArrayList<>();
+            SchemaFingerprints fingerprints = cli.in.isDirectory() ? SchemaFingerprints.load(cli.outDir) : null;
             for (File xsd : files) {
                 try {
-                    OptionsCli one = new OptionsCli();
-                    one.in = xsd; one.outDir = cli.outDir;
-                    one.rootName = cli.rootName; one.namespace = cli.namespace;
-                    one.pretty = cli.pretty; one.logicalTypes = cli.logicalTypes;
-                    one.nullableAttrs = cli.nullableAttrs;
-                    one.glob = cli.glob; one.outNaming = cli.outNaming;
-                    one.avroName = cli.avroName; one.flattenTop = cli.flattenTop; one.forceString = cli.forceString;
-
-                    XmlSchemaJsonGen gen = new XmlSchemaJsonGen(one);
-                    XmlSchemaJsonGen.Result res = gen.generate();
-
-                    String baseName = outName(cli, stripExt(xsd.getName()), res.rootName);
-                    File out = new File(cli.outDir, baseName + ".avsc");
-                    out.getParentFile().mkdirs();
-                    try (FileOutputStream fos = new FileOutputStream(out)) {
-                        fos.write((cli.pretty ? res.jsonPretty : res.jsonCompact)
-                                .getBytes(StandardCharsets.UTF_8));
+                    Converted c = jobs.get(xsd).get();
+                    stats.add(c.stats());
+                    for (String w : c.warnings()) System.err.println("⚠ " + xsd.getName() + " : " + w);
+                    List<Output> kept = new ArrayList<>();
+                    for (Output o : c.outputs()) {
+                        String owner = outputs.owner(o.file());
+                        if (!xsd.getName().equals(owner)) {
+                            System.err.println("⚠ " + xsd.getName() + " : output " + o.file().getName() + " is also written from "
+                                    + owner + ", which wins (last in name order)");
+                            if (manifest != null) manifest.remove(xsd.toURI().toString()); // checked again next run
+                            continue;
+                        }
+                        kept.add(o);
+                        if (c.skipped()) {
+                            System.out.println("= " + xsd.getName() + " -> " + o.file().getName() + " (unchanged)");
+                            unchanged++;
+                        } else {
+                            System.out.println("✔ " + xsd.getName() + " -> " + o.file().getName());
+                            ok++;
+                        }
+                        if (fingerprints != null && o.canonical() != null) fingerprints.put(o.file().getName(), o.fullName(), o.canonical());
                     }
-                    System.out.println("✔ " + xsd.getName() + " -> " + out.getName());
-                    ok++;
-                } catch (Exception ex) {
+                    done.put(xsd, kept.size() == c.outputs().size() ? c
+                            : new Converted(kept, c.warnings(), c.skipped(), c.inputs(), c.stats()));
+                } catch (ExecutionException ee) {
+                    Throwable ex = ee.getCause() != null ? ee.getCause() : ee;
                     System.err.println("✘ " + xsd.getName() + " : " + ex.getMessage());
                     fail++;
                 }
             }
-            System.out.println("Done. Generated=" + ok + ", Failed=" + fail);
-            return;
+            System.out.println("Done. Generated=" + ok + ", Failed=" + fail
+                    + (manifest != null ? ", Unchanged=" + unchanged : ""));
+            if (manifest != null) manifest.save();
+            if (fingerprints != null) fingerprints.save();
+            reportStats(cli, stats);
+        } finally {
+            pool.shutdownNow();
+        }
+        return done;
+    }
+
+    private static void reportStats(OptionsCli cli, List<ConversionStats> stats) throws IOException {
+        if (cli.stats) ConversionStats.printTable(stats, System.out);
+        if (cli.statsJson != null) ConversionStats.writeJson(stats, cli.statsJson.toPath());
+    }
+
+    /**
+     * {@code --shared-types}: generates every file (none is skipped, the shared types depend on all
+     * of them), writes the shared types schema and then the message schemas that refer to it.
+     */
+    private static Map<File, Future<Converted>> convertShared(OptionsCli cli, ConversionConfig config, List<File> files, List<File> schedule, SchemaCache cache,
+                                                             BuildManifest manifest, Outputs outputs, ExecutorService pool) throws Exception {
+        Map<File, Future<Generated>> generating = new HashMap<>();
+        for (File xsd : schedule) generating.put(xsd, pool.submit(() -> generate(cli, config, cache, manifest, xsd)));
+        Map<File, Future<Converted>> jobs = new HashMap<>();
+        List<Generated> ok = new ArrayList<>();
+        for (File xsd : files) {
+            try {
+                ok.add(generating.get(xsd).get());
+            } catch (ExecutionException ee) {
+                jobs.put(xsd, CompletableFuture.failedFuture(ee.getCause() != null ? ee.getCause() : ee));
+            }
+        }
+        List<XmlSchemaJsonGen.Result> results = new ArrayList<>();
+        for (Generated g : ok) for (Schema sc : g.schemas()) results.add(sc.res());
+        SharedTypes shared = new SharedTypes(results);
+        File lib = new File(cli.outDir, cli.sharedTypes + ".avsc");
+        lib.getParentFile().mkdirs();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (Writer w = new OutputStreamWriter(buf, StandardCharsets.UTF_8)) {
+            shared.writeLibrary(w, cli.pretty);
+        }
+        byte[] bytes = buf.toByteArray();
+        if (!lib.isFile() || !Arrays.equals(Files.readAllBytes(lib.toPath()), bytes)) Files.write(lib.toPath(), bytes);
+        System.out.println("✔ " + shared.size() + " shared type(s) -> " + lib.getName());
+        for (Generated g : ok) {
+            File clash = null;
+            for (Schema sc : g.schemas()) if (sc.out().getAbsoluteFile().equals(lib.getAbsoluteFile())) clash = sc.out();
+            if (clash != null) {
+                jobs.put(g.xsd(), CompletableFuture.failedFuture(new IllegalArgumentException(
+                        "output " + clash.getName() + " is the --shared-types file")));
+            } else {
+                jobs.put(g.xsd(), pool.submit(() -> save(cli, cache, manifest, outputs, g, shared)));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * One converted root XSD: its schema, or one per root element with {@code --all-roots};
+     * {@code inputs} are the root and its transitive includes/imports.
+     */
+    record Converted(List<Output> outputs, List<String> warnings, boolean skipped, List<String> inputs, ConversionStats stats) {}
+
+    /** A written schema; {@code fullName} and {@code canonical} (parsing canonical form) are null when it was skipped. */
+    record Output(File file, String fullName, String canonical) {}
+
+    /** Generated schemas of one XSD that are not written yet. */
+    private record Generated(File xsd, XmlSchemaJsonGen gen, List<Schema> schemas, ConversionStats stats) {}
+
+    private record Schema(File out, XmlSchemaJsonGen.Result res) {}
+
+    static Converted convertOne(OptionsCli cli, ConversionConfig config, SchemaCache cache, BuildManifest manifest, Outputs outputs,
+                                File xsd) throws Exception {
+        Converted skipped = manifest != null ? unchanged(cli, manifest, xsd) : null;
+        if (skipped != null && outputs.keep(xsd.getName(), skipped.outputs())) return skipped;
+        return save(cli, cache, manifest, outputs, generate(cli, config, cache, manifest, xsd), null);
+    }
+
+    // The recorded outputs of an XSD that need no regeneration, else null
+    private static Converted unchanged(OptionsCli cli, BuildManifest manifest, File xsd) {
+        String rootUri = xsd.toURI().toString();
+        List<File> prev = manifest.upToDate(rootUri, cli.outputFingerprint(), cli.outDir);
+        if (prev == null) return null;
+        ConversionStats stats = new ConversionStats(xsd.getName());
+        stats.finish();
+        List<Output> outputs = new ArrayList<>();
+        for (File f : prev) outputs.add(new Output(f, null, null));
+        return new Converted(outputs, List.of(), true, manifest.inputsOf(rootUri), stats);
+    }
+
+    private static Generated generate(OptionsCli cli, ConversionConfig config, SchemaCache cache, BuildManifest manifest, File xsd) throws Exception {
+        ConversionStats stats = new ConversionStats(xsd.getName());
+        try {
+            XmlSchemaJsonGen gen = new XmlSchemaJsonGen(xsd.toURI().toString(), config, cache, stats);
+            List<XmlSchemaJsonGen.Result> results = cli.allRoots != null ? gen.generateAll(cli.allRoots) : List.of(gen.generate());
+
+            List<Schema> schemas = new ArrayList<>();
+            Set<File> outs = new HashSet<>();
+            for (XmlSchemaJsonGen.Result res : results) {
+                File out = new File(cli.outDir, outName(cli, stripExt(xsd.getName()), res.rootName) + ".avsc");
+                if (!outs.add(out)) throw new IllegalArgumentException("two roots would be written to " + out.getName());
+                schemas.add(new Schema(out, res));
+            }
+            return new Generated(xsd, gen, schemas, stats);
+        } catch (Exception | Error e) {
+            if (manifest != null) manifest.remove(xsd.toURI().toString());
+            throw e;
+        }
+    }
+
+    private static Converted save(OptionsCli cli, SchemaCache cache, BuildManifest manifest, Outputs outputs, Generated g,
+                                  SharedTypes shared) throws Exception {
+        String rootUri = g.xsd().toURI().toString();
+        try {
+            cli.outDir.mkdirs();
+            List<Output> written = new ArrayList<>();
+            ConversionStats.Span span = g.stats().phase(ConversionStats.Phase.WRITE);
+            try {
+                write(cli, cache, manifest, outputs, rootUri, cli.outputFingerprint(), g, shared);
+                for (Schema sc : g.schemas()) written.add(new Output(sc.out(), sc.res().fullName(), sc.res().canonicalForm()));
+            } finally {
+                span.close();
+            }
+            g.stats().finish();
+            return new Converted(written, g.gen().warnings(), false, g.gen().sourceUris(), g.stats());
+        } catch (Exception | Error e) {
+            if (manifest != null) manifest.remove(rootUri);
+            throw e;
+        }
+    }
+
+    private static void write(OptionsCli cli, SchemaCache cache, BuildManifest manifest, Outputs outputs, String rootUri,
+                              String options, Generated g, SharedTypes shared) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Schema sc : g.schemas()) {
+            File out = sc.out();
+            names.add(out.getName());
+            outputs.write(out, g.xsd().getName(), () -> {
+                if (manifest == null) {
+                    try (Writer w = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+                        writeSchema(sc.res(), shared, w, cli.pretty);
+                    }
+                    g.stats().bytesWritten += out.length();
+                } else {
+                    // Leave the file (and its mtime) alone when the regenerated schema is identical
+                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    try (Writer w = new OutputStreamWriter(buf, StandardCharsets.UTF_8)) {
+                        writeSchema(sc.res(), shared, w, cli.pretty);
+                    }
+                    byte[] bytes = buf.toByteArray();
+                    if (!out.isFile() || !Arrays.equals(Files.readAllBytes(out.toPath()), bytes)) {
+                        Files.write(out.toPath(), bytes);
+                        g.stats().bytesWritten += bytes.length;
+                    }
+                }
+            });
+        }
+        if (manifest != null) {
+            Map<String, String> inputs = new LinkedHashMap<>();
+            for (String uri : g.gen().sourceUris()) inputs.put(uri, cache.contentHash(uri));
+            manifest.put(rootUri, new BuildManifest.Entry(names, options, inputs));
+        }
+    }
+
+    /**
+     * The output files of one batch and the XSD each is written from. When several XSDs produce
+     * the same file, the last in name order wins, whatever order they finish in: a file is only
+     * written under its claim, and never over the claim of an XSD later in name order.
+     */
+    static final class Outputs {
+        /** Writes one output file. */
+        @FunctionalInterface
+        interface Write {
+            void run() throws IOException;
+        }
+
+        private static final class Claim {
+            String owner;    // XSD file name
+            boolean written; // in this run
+        }
+
+        private final Map<File, Claim> claims = new ConcurrentHashMap<>();
+
+        /** {@code others}: outputs of XSDs of the run that are not in this batch, by XSD. */
+        Outputs(Map<File, List<File>> others) {
+            for (Map.Entry<File, List<File>> e : others.entrySet()) {
+                for (File out : e.getValue()) {
+                    Claim c = claim(out);
+                    if (c.owner == null || c.owner.compareTo(e.getKey().getName()) < 0) c.owner = e.getKey().getName();
+                }
+            }
         }
 
-        XmlSchemaJsonGen gen = new XmlSchemaJsonGen(cli);
-        XmlSchemaJsonGen.Result result = gen.generate();
-        String baseName = outName(cli, stripExt(cli.in.getName()), result.rootName);
-        File out = new File(cli.outDir, baseName + ".avsc");
-        out.getParentFile().mkdirs();
-        try (FileOutputStream fos = new FileOutputStream(out)) {
-            fos.write((cli.pretty ? result.jsonPretty : result.jsonCompact)
-                    .getBytes(StandardCharsets.UTF_8));
+        /**
+         * Claims the up-to-date outputs of {@code xsd} without writing them; false when an XSD
+         * earlier in name order already wrote one of them in this run, so they must be written again.
+         */
+        boolean keep(String xsd, List<Output> outs) {
+            for (Output o : outs) {
+                Claim c = claim(o.file());
+                synchronized (c) {
+                    if (c.owner != null && c.owner.compareTo(xsd) > 0) continue; // lost to a later XSD
+                    if (c.written && !xsd.equals(c.owner)) return false;
+                    c.owner = xsd;
+                }
+            }
+            return true;
         }
-        System.out.println("Wrote: " + out.getAbsolutePath());
+
+        void write(File out, String xsd, Write w) throws IOException {
+            Claim c = claim(out);
+            synchronized (c) {
+                if (c.owner != null && c.owner.compareTo(xsd) > 0) return;
+                w.run();
+                c.owner = xsd;
+                c.written = true;
+            }
+        }
+
+        /** The XSD an output file was last claimed by. */
+        String owner(File out) {
+            Claim c = claims.get(out.getAbsoluteFile());
+            if (c == null) return null;
+            synchronized (c) {
+                return c.owner;
+            }
+        }
+
+        private Claim claim(File out) {
+            return claims.computeIfAbsent(out.getAbsoluteFile(), k -> new Claim());
+        }
+    }
+
+    private static void writeSchema(XmlSchemaJsonGen.Result res, SharedTypes shared, Writer w, boolean pretty) throws IOException {
+        if (shared != null) shared.writeTo(res, w, pretty); else res.writeTo(w, pretty);
     }
 
-    private static String stripExt(String name) {
+    static String stripExt(String name) {
         int i = name.lastIndexOf('.');
         return i > 0 ? name.substring(0, i) : name;
     }
 
-    private static String outName(OptionsCli cli, String fileBase, String rootName) {
+    static String outName(OptionsCli cli, String fileBase, String rootName) {
         String rn = (rootName == null || rootName.isBlank()) ? "Record" : rootName;
         String fb = (fileBase == null || fileBase.isBlank()) ? "xsd" : fileBase;
         return switch (cli.outNaming == null ? "file+root" : cli.outNaming) {
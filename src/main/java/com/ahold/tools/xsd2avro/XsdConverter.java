@@ -0,0 +1,73 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Library entry point: converts XSDs with one immutable {@link ConversionConfig}, no command
+ * line and no temporary files. Thread-safe; documents go through a shared {@link SchemaCache},
+ * so an import common to several schemas is read and compiled once. Roots whose documents define
+ * the same global names differently are compiled apart, so independent schemas never see each
+ * other's definitions, even in one namespace. Includes and imports are resolved against the
+ * root's URI, through the {@link XsdResolver} first.
+ *
+ * <pre>
+ *   XsdConverter conv = new XsdConverter(ConversionConfig.builder().logicalTypes(true).build());
+ *   String avsc = conv.convert(Path.of("payload.xsd")).jsonPretty();
+ * </pre>
+ */
+public final class XsdConverter {
+    private final ConversionConfig config;
+    private final SchemaCache cache;
+
+    public XsdConverter(ConversionConfig config) {
+        this(config, new SchemaCache());
+    }
+
+    public XsdConverter(ConversionConfig config, XsdResolver resolver) {
+        this(config, new SchemaCache(resolver));
+    }
+
+    /** With a cache shared with other converters (e.g. one per config over the same documents). */
+    public XsdConverter(ConversionConfig config, SchemaCache cache) {
+        if (config == null || cache == null) throw new IllegalArgumentException("config and cache are required");
+        this.config = config;
+        this.cache = cache;
+    }
+
+    public ConversionConfig config() { return config; }
+
+    public XmlSchemaJsonGen.Result convert(Path xsd) throws Exception {
+        return convertUri(xsd.toAbsolutePath().normalize().toFile().toURI().toString()); // same form as the CLI's keys
+    }
+
+    /** A root document by absolute URI, e.g. {@code classpath:/xsd/order.xsd}, supplied by the resolver. */
+    public XmlSchemaJsonGen.Result convertUri(String uri) throws Exception {
+        if (!URI.create(uri).isAbsolute()) throw new IllegalArgumentException("Not an absolute URI: " + uri);
+        return new XmlSchemaJsonGen(uri, config, cache, new ConversionStats(name(uri))).generate();
+    }
+
+    /**
+     * An XSD given as bytes. {@code systemId} is its absolute URI, against which relative
+     * includes/imports are resolved. Give different documents different system ids: new content
+     * for a system id replaces the old one for later conversions, and a conversion running at
+     * that moment may read either version of the documents it includes.
+     */
+    public XmlSchemaJsonGen.Result convert(byte[] xsd, String systemId) throws Exception {
+        cache.register(systemId, xsd.clone());
+        return convertUri(systemId);
+    }
+
+    public XmlSchemaJsonGen.Result convert(InputStream xsd, String systemId) throws Exception {
+        byte[] content;
+        try (xsd) { content = xsd.readAllBytes(); }
+        cache.register(systemId, content);
+        return convertUri(systemId);
+    }
+
+    private static String name(String uri) {
+        int i = uri.lastIndexOf('/');
+        return i >= 0 && i < uri.length() - 1 ? uri.substring(i + 1) : uri;
+    }
+}
@@ -0,0 +1,13 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.IOException;
+
+/**
+ * Supplies XSD documents by absolute URI: roots given by URI and every include/import, e.g. from
+ * the classpath or a schema registry. Called at most once per document and {@link SchemaCache}.
+ */
+@FunctionalInterface
+public interface XsdResolver {
+    /** Content of the document, or null when this resolver does not have it (local files are then read). */
+    byte[] resolve(String uri) throws IOException;
+}
@@ -0,0 +1,132 @@
+package com.ahold.tools.xsd2avro;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code --watch}: keeps the JVM (and the {@link SchemaCache}) warm and regenerates only the
+ * outputs whose root XSD or included/imported XSDs changed.
+ */
+final class XsdWatcher {
+    private static final long DEBOUNCE_MS = 150;
+
+    private final OptionsCli cli;
+    private final SchemaCache cache;
+    private final BuildManifest manifest;
+    private final PathMatcher rootMatcher;
+    private final Map<File, List<Path>> inputs = new HashMap<>(); // root -> documents it depends on
+    private final Map<File, List<File>> outputs = new HashMap<>(); // root -> files written from it
+    private final Set<Path> watchedDirs = new HashSet<>();
+
+    XsdWatcher(OptionsCli cli, SchemaCache cache, BuildManifest manifest) {
+        this.cli = cli;
+        this.cache = cache;
+        this.manifest = manifest;
+        this.rootMatcher = FileSystems.getDefault().getPathMatcher("glob:" + XsdAvroConversionDemo.glob(cli));
+    }
+
+    void run(Map<File, XsdAvroConversionDemo.Converted> initial) throws Exception {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            register(ws, cli.in.isDirectory() ? cli.in.toPath() : cli.in.getAbsoluteFile().toPath().getParent());
+            track(ws, initial);
+            System.out.println("Watching " + watchedDirs.size() + " director" + (watchedDirs.size() == 1 ? "y" : "ies")
+                    + " for XSD changes (Ctrl+C to stop)");
+
+            while (true) {
+                Set<Path> changed = new HashSet<>();
+                drain(ws.take(), changed);
+                // Editors save in bursts (truncate, write, rename); wait until things settle
+                WatchKey more;
+                while ((more = ws.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) drain(more, changed);
+                rebuild(ws, changed);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rebuild(WatchService ws, Set<Path> changed) throws Exception {
+        List<String> uris = new ArrayList<>();
+        for (Path p : changed) uris.add(p.toFile().toURI().toString()); // same form as SchemaCache keys
+        cache.invalidate(uris);
+
+        List<File> affected = new ArrayList<>();
+        for (Path p : changed) {
+            File f = p.toFile();
+            if (cli.in.isDirectory() ? isRoot(p) : f.getAbsoluteFile().equals(cli.in.getAbsoluteFile())) {
+                if (f.isFile()) {
+                    affected.add(f);
+                } else {
+                    inputs.remove(f);
+                    outputs.remove(f);
+                }
+            }
+        }
+        for (Map.Entry<File, List<Path>> e : inputs.entrySet()) {
+            if (!affected.contains(e.getKey()) && e.getKey().isFile()
+                    && e.getValue().stream().anyMatch(changed::contains)) affected.add(e.getKey());
+        }
+        if (affected.isEmpty()) return;
+        if (cli.sharedTypes != null && cli.in.isDirectory()) affected = XsdAvroConversionDemo.listXsds(cli); // shared types span the batch
+
+        long t0 = System.nanoTime();
+        Map<File, XsdAvroConversionDemo.Converted> done = XsdAvroConversionDemo.runBatch(cli, affected, outputs, cache, manifest);
+        track(ws, done);
+        System.out.println("Rebuilt " + affected.size() + " file(s) in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    private boolean isRoot(Path p) {
+        Path dir = cli.in.getAbsoluteFile().toPath().normalize();
+        return dir.equals(p.getParent()) && rootMatcher.matches(p.getFileName());
+    }
+
+    private void track(WatchService ws, Map<File, XsdAvroConversionDemo.Converted> done) throws IOException {
+        for (Map.Entry<File, XsdAvroConversionDemo.Converted> e : done.entrySet()) {
+            List<Path> deps = new ArrayList<>();
+            for (String uri : e.getValue().inputs()) {
+                URI u = URI.create(uri);
+                if (!"file".equalsIgnoreCase(u.getScheme())) continue;
+                Path p = Path.of(u).normalize();
+                deps.add(p);
+                register(ws, p.getParent());
+            }
+            inputs.put(e.getKey().getAbsoluteFile(), deps);
+            List<File> written = new ArrayList<>();
+            for (XsdAvroConversionDemo.Output o : e.getValue().outputs()) written.add(o.file());
+            outputs.put(e.getKey().getAbsoluteFile(), written);
+        }
+    }
+
+    private void register(WatchService ws, Path dir) throws IOException {
+        Path d = dir.toAbsolutePath().normalize();
+        if (Files.isDirectory(d) && watchedDirs.add(d)) {
+            d.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
+
+    private static void drain(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.context() instanceof Path rel) changed.add(dir.resolve(rel).toAbsolutePath().normalize());
+        }
+        key.reset();
+    }
+}